@@ -0,0 +1,300 @@
+package il.co.ilrd.threadpool.bench;
+
+import il.co.ilrd.threadpool.LatencyHistogram;
+import il.co.ilrd.threadpool.ThreadPool;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * open loop load test, not a JMH benchmark:
+ * java -cp benchmarks/target/benchmarks.jar il.co.ilrd.threadpool.bench.LoadHarness --rate=20000 --seconds=30
+ *
+ * producers submit on a fixed schedule whatever the pool does, and every latency is measured from
+ * when the task was due to be submitted, not from when the producer got around to it. a producer
+ * stuck in a blocking submit therefore cannot hide the stall (coordinated omission): the tasks it
+ * was late for are charged the time they waited behind it.
+ */
+public class LoadHarness {
+    private static final double[] PERCENTILES = {50.0, 90.0, 99.0, 99.9, 99.99};
+    private static final String[] LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+    private static final long SPIN_BEFORE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final PoolTarget.Kind target;
+    private final int threads;
+    private final int queueCapacity;
+    private final int producers;
+    private final double rate;
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final long seed;
+    private final List<Share> mix;
+
+    private final LatencyHistogram[] toStart = histograms();
+    private final LatencyHistogram[] toComplete = histograms();
+    private final LatencyHistogram lag = new LatencyHistogram();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private volatile long measureFrom;
+
+    LoadHarness(PoolTarget.Kind target, int threads, int queueCapacity, int producers, double rate,
+                long warmupNanos, long measureNanos, long seed, List<Share> mix) {
+        if (threads <= 0 || queueCapacity <= 0 || producers <= 0 || rate <= 0 || measureNanos <= 0 || mix.isEmpty())
+            throw new IllegalArgumentException();
+
+        this.target = target;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.producers = producers;
+        this.rate = rate;
+        this.warmupNanos = warmupNanos;
+        this.measureNanos = measureNanos;
+        this.seed = seed;
+        this.mix = mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        PoolTarget.Kind target = PoolTarget.Kind.LOCKED_HEAP;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int capacity = 1 << 16;
+        int producers = 1;
+        double rate = 10_000;
+        long warmup = TimeUnit.SECONDS.toNanos(5);
+        long seconds = TimeUnit.SECONDS.toNanos(30);
+        long seed = 42;
+        List<Share> mix = parseMix("HIGH:10:5us,MED:30:20us,LOW:60:50us");
+
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0)
+                throw new IllegalArgumentException("expected --name=value, got " + arg);
+
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "target":
+                    target = PoolTarget.Kind.valueOf(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "capacity":
+                    capacity = Integer.parseInt(value);
+                    break;
+                case "producers":
+                    producers = Integer.parseInt(value);
+                    break;
+                case "rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "warmup":
+                    warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                    break;
+                case "seconds":
+                    seconds = TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "mix":
+                    mix = parseMix(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        new LoadHarness(target, threads, capacity, producers, rate, warmup, seconds, seed, mix).run();
+    }
+
+    void run() throws InterruptedException {
+        PoolTarget pool = PoolTarget.create(target, threads, false, queueCapacity);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        measureFrom = start + warmupNanos;
+        long end = measureFrom + measureNanos;
+
+        List<Thread> producing = new ArrayList<>(producers);
+        for (int p = 0; p < producers; ++p) {
+            //producers share the schedule, p takes every producers-th slot
+            int first = p;
+            Random random = new Random(seed + p);
+            Thread producer = new Thread(() -> produce(pool, start, end, first, random), "load-producer-" + p);
+            producing.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producing) {
+            producer.join();
+        }
+        //whatever is still queued counts, it was due before the end
+        while (completed.sum() < submitted.sum()) {
+            Thread.sleep(10);
+        }
+        pool.close();
+        report(System.out);
+    }
+
+    private void produce(PoolTarget pool, long start, long end, int first, Random random) {
+        double interval = 1e9 / rate;
+        for (long i = first; ; i += producers) {
+            long due = start + (long) (i * interval);
+            if (due - end >= 0)
+                return;
+            waitUntil(due);
+            Share share = pick(random);
+            boolean measured = due - measureFrom >= 0;
+            if (measured) {
+                lag.record(System.nanoTime() - due);
+            }
+            try {
+                pool.submit(new Probe(due, share, measured), share.priority);
+                submitted.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void waitUntil(long due) {
+        long left;
+        while ((left = due - System.nanoTime()) > 0) {
+            if (left > SPIN_BEFORE_NANOS) {
+                LockSupport.parkNanos(left - SPIN_BEFORE_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private Share pick(Random random) {
+        int total = 0;
+        for (Share share : mix) {
+            total += share.weight;
+        }
+        int roll = random.nextInt(total);
+        for (Share share : mix) {
+            roll -= share.weight;
+            if (roll < 0)
+                return share;
+        }
+        return mix.get(mix.size() - 1);
+    }
+
+    //records both latencies from the time the task was due, busy for its share's work time in between
+    private final class Probe implements Callable<Void> {
+        private final long due;
+        private final Share share;
+        private final boolean measured;
+
+        Probe(long due, Share share, boolean measured) {
+            this.due = due;
+            this.share = share;
+            this.measured = measured;
+        }
+
+        @Override
+        public Void call() {
+            long started = System.nanoTime();
+            long busyUntil = started + share.workNanos;
+            while (System.nanoTime() - busyUntil < 0) {
+                Thread.onSpinWait();
+            }
+            if (measured) {
+                int p = share.priority.ordinal();
+                toStart[p].record(started - due);
+                toComplete[p].record(System.nanoTime() - due);
+            }
+            completed.increment();
+            return null;
+        }
+    }
+
+    void report(PrintStream out) {
+        out.printf(Locale.ROOT, "# %s %s, %d cores%n", System.getProperty("java.vm.name"),
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+        out.printf(Locale.ROOT, "# target=%s threads=%d capacity=%d producers=%d rate=%.0f/s warmup=%ds seconds=%ds mix=%s%n",
+                target, threads, queueCapacity, producers, rate, TimeUnit.NANOSECONDS.toSeconds(warmupNanos),
+                TimeUnit.NANOSECONDS.toSeconds(measureNanos), mix);
+        out.println("# microseconds from when each task was due to be submitted");
+        out.printf(Locale.ROOT, "%-8s %-9s %10s", "priority", "latency", "count");
+        for (String label : LABELS) {
+            out.printf(Locale.ROOT, " %10s", label);
+        }
+        out.printf(Locale.ROOT, " %10s%n", "max");
+        for (ThreadPool.Priority priority : ThreadPool.Priority.values()) {
+            row(out, priority.name(), "to-start", toStart[priority.ordinal()].snapshot());
+            row(out, priority.name(), "to-done", toComplete[priority.ordinal()].snapshot());
+        }
+        row(out, "-", "lag", lag.snapshot());
+        out.printf(Locale.ROOT, "# achieved %.0f/s, lag is how late the producers submitted%n",
+                lag.snapshot().getCount() * 1e9 / measureNanos);
+    }
+
+    private static void row(PrintStream out, String priority, String latency, LatencyHistogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0)
+            return;
+
+        out.printf(Locale.ROOT, "%-8s %-9s %10d", priority, latency, snapshot.getCount());
+        for (double percentile : PERCENTILES) {
+            out.printf(Locale.ROOT, " %10.1f", snapshot.percentileNanos(percentile) / 1e3);
+        }
+        out.printf(Locale.ROOT, " %10.1f%n", snapshot.getMaxNanos() / 1e3);
+    }
+
+    private static LatencyHistogram[] histograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[ThreadPool.Priority.values().length];
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    //PRIORITY:weight:work, e.g. HIGH:10:5us,LOW:90:1ms
+    static List<Share> parseMix(String spec) {
+        List<Share> mix = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] fields = part.trim().split(":");
+            if (fields.length != 3)
+                throw new IllegalArgumentException("expected PRIORITY:weight:work, got " + part);
+
+            mix.add(new Share(ThreadPool.Priority.valueOf(fields[0]), Integer.parseInt(fields[1]), parseNanos(fields[2])));
+        }
+        return mix;
+    }
+
+    static long parseNanos(String duration) {
+        String[] units = {"ns", "us", "ms", "s"};
+        long[] nanos = {1, 1_000, 1_000_000, 1_000_000_000};
+        for (int i = 0; i < units.length; ++i) {
+            //"s" last, "ns", "us" and "ms" end with it too
+            if (duration.endsWith(units[i]))
+                return Long.parseLong(duration.substring(0, duration.length() - units[i].length())) * nanos[i];
+        }
+        throw new IllegalArgumentException("expected a duration like 20us, got " + duration);
+    }
+
+    static final class Share {
+        private final ThreadPool.Priority priority;
+        private final int weight;
+        private final long workNanos;
+
+        Share(ThreadPool.Priority priority, int weight, long workNanos) {
+            if (weight <= 0 || workNanos < 0)
+                throw new IllegalArgumentException();
+
+            this.priority = priority;
+            this.weight = weight;
+            this.workNanos = workNanos;
+        }
+
+        @Override
+        public String toString() {
+            return priority + ":" + weight + ":" + workNanos + "ns";
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package il.co.ilrd.threadpool.bench;
+
+import il.co.ilrd.threadpool.ThreadPool;
+
+import java.util.Collection;
+import java.util.concurrent.*;
+
+/*
+ * the executors a benchmark can be pointed at through @Param("target"),
+ * ThreadPool in its configurations plus the JDK pools as baselines.
+ * the JDK pools have no notion of Priority and ignore it.
+ */
+public abstract class PoolTarget {
+
+    public enum Kind {
+        LOCKED_HEAP,
+        MULTI_LANE,
+        WORK_STEALING,
+        THREAD_POOL_EXECUTOR,
+        FORK_JOIN_POOL
+    }
+
+    abstract <T> Future<T> submit(Callable<T> task, ThreadPool.Priority priority) throws InterruptedException;
+
+    abstract void close() throws InterruptedException;
+
+    <T> void submitAll(Collection<? extends Callable<T>> tasks, ThreadPool.Priority priority) throws InterruptedException {
+        for (Callable<T> task : tasks) {
+            submit(task, priority);
+        }
+    }
+
+    static PoolTarget create(Kind kind, int threads) {
+        return create(kind, threads, false);
+    }
+
+    //metrics only applies to ThreadPool
+    static PoolTarget create(Kind kind, int threads, boolean metrics) {
+        return create(kind, threads, metrics, threads);
+    }
+
+    //the JDK pools keep their unbounded queues whatever the capacity
+    static PoolTarget create(Kind kind, int threads, boolean metrics, int queueCapacity) {
+        switch (kind) {
+            case LOCKED_HEAP:
+                return of(new ThreadPool(threads, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.SHARED_QUEUE,
+                        ThreadPool.SchedulingPolicy.STRICT, queueCapacity), metrics);
+            case MULTI_LANE:
+                return of(new ThreadPool(threads, ThreadPool.QueueType.MULTI_LANE, ThreadPool.WorkerMode.SHARED_QUEUE,
+                        ThreadPool.SchedulingPolicy.STRICT, queueCapacity), metrics);
+            case WORK_STEALING:
+                return of(new ThreadPool(threads, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.WORK_STEALING,
+                        ThreadPool.SchedulingPolicy.STRICT, queueCapacity), metrics);
+            case THREAD_POOL_EXECUTOR:
+                return of(new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>()));
+            case FORK_JOIN_POOL:
+                return of(new ForkJoinPool(threads));
+            default:
+                throw new IllegalArgumentException(kind.name());
+        }
+    }
+
+    private static PoolTarget of(ThreadPool pool, boolean metrics) {
+        pool.setMetricsEnabled(metrics);
+        return new PoolTarget() {
+            @Override
+            <T> Future<T> submit(Callable<T> task, ThreadPool.Priority priority) throws InterruptedException {
+                return pool.submit(task, priority);
+            }
+
+            @Override
+            <T> void submitAll(Collection<? extends Callable<T>> tasks, ThreadPool.Priority priority) throws InterruptedException {
+                pool.submitAll(tasks, priority);
+            }
+
+            @Override
+            void close() throws InterruptedException {
+                pool.shutdown();
+                pool.awaitTermination();
+            }
+        };
+    }
+
+    private static PoolTarget of(ExecutorService pool) {
+        return new PoolTarget() {
+            @Override
+            <T> Future<T> submit(Callable<T> task, ThreadPool.Priority priority) {
+                return pool.submit(task);
+            }
+
+            @Override
+            void close() throws InterruptedException {
+                pool.shutdown();
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        };
+    }
+}
@@ -0,0 +1,119 @@
+package il.co.ilrd.threadpool.bench;
+
+import il.co.ilrd.threadpool.IndexedHeap;
+import il.co.ilrd.threadpool.WaitableLaneQueue;
+import il.co.ilrd.threadpool.WaitablePriorityQueueSem;
+import il.co.ilrd.threadpool.WaitableQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the two WaitableQueue implementations head to head.
+ * enqueueDequeue runs 16 threads that each put one element and take one, so
+ * nobody can block forever and both ends of the queue are contended.
+ * remove measures cancel-style removal of a queued element from a deep queue,
+ * which is what TaskFuture.cancel pays. Item is a Slot like the pool's tasks, so the heap finds it by index.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueBenchmark {
+    static final int LANES = 5;
+
+    public enum Impl {
+        LOCKED_HEAP,
+        MULTI_LANE
+    }
+
+    static final class Item implements IndexedHeap.Slot {
+        final int priority;
+        private int heapIndex = -1;
+
+        Item(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public int heapIndex() {
+            return heapIndex;
+        }
+
+        @Override
+        public void heapIndex(int index) {
+            heapIndex = index;
+        }
+    }
+
+    static WaitableQueue<Item> create(Impl impl, int capacity) {
+        if (impl == Impl.MULTI_LANE)
+            return new WaitableLaneQueue<>(LANES, item -> item.priority, capacity);
+
+        Comparator<Item> highFirst = (a, b) -> Integer.compare(b.priority, a.priority);
+        return new WaitablePriorityQueueSem<>(highFirst, capacity);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Contended {
+        @Param({"LOCKED_HEAP", "MULTI_LANE"})
+        Impl impl;
+
+        WaitableQueue<Item> queue;
+
+        @Setup
+        public void setUp() {
+            queue = create(impl, 1024);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        Item item;
+
+        @Setup
+        public void setUp() {
+            item = new Item(ThreadLocalRandom.current().nextInt(LANES));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Deep {
+        @Param({"LOCKED_HEAP", "MULTI_LANE"})
+        Impl impl;
+
+        @Param({"1000", "10000", "100000"})
+        int depth;
+
+        WaitableQueue<Item> queue;
+        Item[] items;
+
+        @Setup
+        public void setUp() throws InterruptedException {
+            queue = create(impl, depth);
+            items = new Item[depth];
+            for (int i = 0; i < depth; ++i) {
+                items[i] = new Item(i % LANES);
+                queue.enqueue(items[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Item enqueueDequeue(Contended state, Producer producer) throws InterruptedException {
+        state.queue.enqueue(producer.item);
+        return state.queue.dequeue();
+    }
+
+    @Benchmark
+    public boolean remove(Deep state) throws InterruptedException {
+        Item victim = state.items[ThreadLocalRandom.current().nextInt(state.depth)];
+        boolean removed = state.queue.remove(victim);
+        state.queue.enqueue(victim);
+        return removed;
+    }
+}
@@ -0,0 +1,46 @@
+package il.co.ilrd.threadpool.bench;
+
+import il.co.ilrd.threadpool.ThreadPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+//latency from submit until Future.get returns, one task in flight per benchmark thread
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    private static final Callable<Integer> TASK = () -> 42;
+
+    @Param({"LOCKED_HEAP", "MULTI_LANE", "WORK_STEALING", "THREAD_POOL_EXECUTOR", "FORK_JOIN_POOL"})
+    private PoolTarget.Kind target;
+
+    @Param({"MED"})
+    private ThreadPool.Priority priority;
+
+    //overhead of ThreadPool.setMetricsEnabled
+    @Param({"false", "true"})
+    private boolean metrics;
+
+    private PoolTarget pool;
+
+    @Setup
+    public void setUp() {
+        pool = PoolTarget.create(target, Runtime.getRuntime().availableProcessors(), metrics);
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pool.close();
+    }
+
+    @Benchmark
+    public Integer submitAndGet() throws InterruptedException, ExecutionException {
+        return pool.submit(TASK, priority).get();
+    }
+}
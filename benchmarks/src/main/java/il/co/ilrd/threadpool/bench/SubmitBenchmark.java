@@ -0,0 +1,70 @@
+package il.co.ilrd.threadpool.bench;
+
+import il.co.ilrd.threadpool.ThreadPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * end to end submit throughput: every invocation submits BATCH empty tasks
+ * and waits for the last one, so the queue never grows without bound
+ * and the bounded ThreadPool is compared fairly with the unbounded JDK pools.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class SubmitBenchmark {
+    private static final int BATCH = 1_000;
+
+    @Param({"LOCKED_HEAP", "MULTI_LANE", "WORK_STEALING", "THREAD_POOL_EXECUTOR", "FORK_JOIN_POOL"})
+    private PoolTarget.Kind target;
+
+    @Param({"LOW", "MED", "HIGH"})
+    private ThreadPool.Priority priority;
+
+    private PoolTarget pool;
+
+    @Setup
+    public void setUp() {
+        pool = PoolTarget.create(target, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submit() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        Callable<Void> task = () -> {
+            done.countDown();
+            return null;
+        };
+        for (int i = 0; i < BATCH; ++i) {
+            pool.submit(task, priority);
+        }
+        done.await();
+    }
+
+    //same work as submit, handed over in one submitAll
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submitAll() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(BATCH);
+        Callable<Void> task = () -> {
+            done.countDown();
+            return null;
+        };
+        pool.submitAll(Collections.nCopies(BATCH, task), priority);
+        done.await();
+    }
+}
@@ -0,0 +1,35 @@
+package il.co.ilrd.threadpool;
+
+/*
+ * how an idle worker waits for its next task, see ThreadPool.setIdleStrategy (shared queue mode).
+ * it polls wpq up to spins times with Thread.onSpinWait, then up to yields times with Thread.yield,
+ * and only then parks. a spinning worker burns a core while idle but takes a new task without
+ * an OS wake up, and while one spins submit does not wake a parked worker at all.
+ */
+public class IdleStrategy {
+    //park right away, on wpq itself, no CPU spent while idle
+    public static final IdleStrategy PARK = new IdleStrategy(0, 0);
+
+    private final int spins;
+    private final int yields;
+
+    public IdleStrategy(int spins, int yields) {
+        if (spins < 0 || yields < 0)
+            throw new IllegalArgumentException();
+
+        this.spins = spins;
+        this.yields = yields;
+    }
+
+    public int getSpins() {
+        return spins;
+    }
+
+    public int getYields() {
+        return yields;
+    }
+
+    boolean parksAtOnce() {
+        return spins == 0 && yields == 0;
+    }
+}
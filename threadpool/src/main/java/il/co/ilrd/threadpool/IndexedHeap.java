@@ -0,0 +1,170 @@
+package il.co.ilrd.threadpool;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/*
+ * binary heap that tells each Slot element where it sits, so removing one is a sift from
+ * that index, O(log n), instead of the linear search of PriorityQueue.remove.
+ * other elements still work, they are just searched for. not thread safe.
+ */
+public class IndexedHeap<E> {
+    //public so elements queued from outside the package, WaitablePriorityQueueSem's, can be one too
+    public interface Slot {
+        //-1 while in no heap
+        int heapIndex();
+        void heapIndex(int index);
+    }
+
+    private Object[] heap;
+    private int size = 0;
+    private final Comparator<? super E> comparator;
+
+    IndexedHeap(int initialCapacity, Comparator<? super E> comparator) {
+        heap = new Object[Math.max(initialCapacity, 1)];
+        this.comparator = comparator;
+    }
+
+    void add(E element) {
+        if (element == null)
+            throw new NullPointerException();
+
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        siftUp(size++, element);
+    }
+
+    E peek() {
+        return elementAt(0);
+    }
+
+    E poll() {
+        if (size == 0)
+            return null;
+
+        E top = elementAt(0);
+        removeAt(0);
+        return top;
+    }
+
+    boolean remove(Object element) {
+        int index = indexOf(element);
+        if (index < 0)
+            return false;
+
+        removeAt(index);
+        return true;
+    }
+
+    //change may move element either way, a sift from where it sits, O(log n) for a Slot
+    boolean update(Object element, Consumer<? super E> change) {
+        int index = indexOf(element);
+        if (index < 0)
+            return false;
+
+        E updated = elementAt(index);
+        change.accept(updated);
+        siftDown(index, updated);
+        if (heap[index] == updated) {
+            siftUp(index, updated);
+        }
+        return true;
+    }
+
+    //the element that would come out last, if it comes out after than. only leaves can be last, O(n)
+    E pollLowerThan(E than) {
+        int lowest = -1;
+        for (int i = size >>> 1; i < size; ++i) {
+            if (lowest < 0 || compare(elementAt(i), elementAt(lowest)) > 0) {
+                lowest = i;
+            }
+        }
+        if (lowest < 0 || compare(elementAt(lowest), than) <= 0)
+            return null;
+
+        E last = elementAt(lowest);
+        removeAt(lowest);
+        return last;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int indexOf(Object element) {
+        if (element instanceof Slot) {
+            int index = ((Slot) element).heapIndex();
+            //the slot may belong to another heap
+            return (index >= 0 && index < size && heap[index] == element) ? index : -1;
+        }
+        for (int i = 0; i < size; ++i) {
+            if (heap[i].equals(element))
+                return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        E removed = elementAt(index);
+        E last = elementAt(--size);
+        heap[size] = null;
+        if (removed instanceof Slot) {
+            ((Slot) removed).heapIndex(-1);
+        }
+        if (index == size)
+            return;
+
+        siftDown(index, last);
+        if (heap[index] == last) {
+            siftUp(index, last);
+        }
+    }
+
+    private void siftUp(int index, E element) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            E above = elementAt(parent);
+            if (compare(element, above) >= 0)
+                break;
+            place(index, above);
+            index = parent;
+        }
+        place(index, element);
+    }
+
+    private void siftDown(int index, E element) {
+        int half = size >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            int right = child + 1;
+            if (right < size && compare(elementAt(right), elementAt(child)) < 0) {
+                child = right;
+            }
+            E below = elementAt(child);
+            if (compare(element, below) <= 0)
+                break;
+            place(index, below);
+            index = child;
+        }
+        place(index, element);
+    }
+
+    private void place(int index, E element) {
+        heap[index] = element;
+        if (element instanceof Slot) {
+            ((Slot) element).heapIndex(index);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(E a, E b) {
+        return (comparator != null) ? comparator.compare(a, b) : ((Comparable<? super E>) a).compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int index) {
+        return (E) heap[index];
+    }
+}
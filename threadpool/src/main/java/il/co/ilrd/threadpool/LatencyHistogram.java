@@ -0,0 +1,114 @@
+package il.co.ilrd.threadpool;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * log-linear histogram of nanosecond latencies: every power of two is split into 8 linear
+ * sub-buckets, so a reported value is at most 12.5% above the real one.
+ * buckets are LongAdders, recording threads never contend on one counter.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_OF_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[NUM_OF_BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < NUM_OF_BUCKETS; ++i) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    //thread safe
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets[indexOf(nanos)].increment();
+        count.increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[NUM_OF_BUCKETS];
+        for (int i = 0; i < NUM_OF_BUCKETS; ++i) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    static int indexOf(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    //largest value that lands in the bucket
+    static long highestOf(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+
+        int exp = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        long lowest = (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+        return lowest + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    //counters are read one by one while others may record, so a snapshot is close but not atomic
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanNanos() {
+            return (count == 0) ? 0.0 : (double) sum / count;
+        }
+
+        public long getMaxNanos() {
+            return max;
+        }
+
+        //e.g. percentile(99.9), 0 when nothing was recorded
+        public long percentileNanos(double percentile) {
+            if (percentile < 0.0 || percentile > 100.0)
+                throw new IllegalArgumentException();
+
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            if (total == 0)
+                return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(highestOf(i), max);
+            }
+            return max;
+        }
+    }
+}
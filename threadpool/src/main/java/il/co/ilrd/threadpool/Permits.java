@@ -0,0 +1,25 @@
+package il.co.ilrd.threadpool;
+
+import java.util.concurrent.Semaphore;
+
+//bulk permit handling shared by the WaitableQueue implementations
+final class Permits {
+
+    private Permits() {
+    }
+
+    //blocks for one permit, then takes as many more as are free right now, up to max in total
+    static int acquireUpTo(Semaphore sem, int max) throws InterruptedException {
+        sem.acquire();
+        return 1 + tryAcquireUpTo(sem, max - 1);
+    }
+
+    //never blocks, may take fewer than are free if it races with other threads
+    static int tryAcquireUpTo(Semaphore sem, int max) {
+        int wanted = Math.min(max, sem.availablePermits());
+        while (wanted > 0 && !sem.tryAcquire(wanted)) {
+            wanted = Math.min(wanted - 1, sem.availablePermits());
+        }
+        return Math.max(wanted, 0);
+    }
+}
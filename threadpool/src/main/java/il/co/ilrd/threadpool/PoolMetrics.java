@@ -0,0 +1,132 @@
+package il.co.ilrd.threadpool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * what ThreadPool records while metrics are on. every counter is striped (LongAdder),
+ * so recording from many workers adds no contention of its own.
+ */
+public class PoolMetrics {
+    private final LatencyHistogram[] queueWait = new LatencyHistogram[ThreadPool.Priority.values().length];
+    private final LatencyHistogram[] execution = new LatencyHistogram[ThreadPool.Priority.values().length];
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    PoolMetrics() {
+        for (int i = 0; i < queueWait.length; ++i) {
+            queueWait[i] = new LatencyHistogram();
+            execution[i] = new LatencyHistogram();
+        }
+    }
+
+    //waitNanos < 0 when the task was queued before metrics were switched on
+    void taskStarted(int priority, long waitNanos) {
+        busy.increment();
+        if (waitNanos >= 0) {
+            queueWait[priority].record(waitNanos);
+        }
+    }
+
+    void taskFinished(int priority, long executionNanos, boolean succeeded) {
+        taskStopped(priority, executionNanos);
+        if (succeeded) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    //a run that ended without an outcome of its own
+    void taskStopped(int priority, long executionNanos) {
+        busy.decrement();
+        execution[priority].record(executionNanos);
+    }
+
+    void taskCancelled() {
+        cancelled.increment();
+    }
+
+    //refused or dropped by the SaturationPolicy
+    void taskRejected() {
+        rejected.increment();
+    }
+
+    Snapshot snapshot(int queueDepth, int workers) {
+        LatencyHistogram.Snapshot[] waits = new LatencyHistogram.Snapshot[queueWait.length];
+        LatencyHistogram.Snapshot[] runs = new LatencyHistogram.Snapshot[execution.length];
+        for (int i = 0; i < waits.length; ++i) {
+            waits[i] = queueWait[i].snapshot();
+            runs[i] = execution[i].snapshot();
+        }
+        int busyNow = (int) Math.max(0, busy.sum());
+        return new Snapshot(waits, runs, completed.sum(), failed.sum(), cancelled.sum(),
+                rejected.sum(), queueDepth, busyNow, Math.max(0, workers - busyNow));
+    }
+
+    public static class Snapshot {
+        private final LatencyHistogram.Snapshot[] queueWait;
+        private final LatencyHistogram.Snapshot[] execution;
+        private final long completed;
+        private final long failed;
+        private final long cancelled;
+        private final long rejected;
+        private final int queueDepth;
+        private final int busyWorkers;
+        private final int idleWorkers;
+
+        Snapshot(LatencyHistogram.Snapshot[] queueWait, LatencyHistogram.Snapshot[] execution,
+                 long completed, long failed, long cancelled, long rejected,
+                 int queueDepth, int busyWorkers, int idleWorkers) {
+            this.queueWait = queueWait;
+            this.execution = execution;
+            this.completed = completed;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.rejected = rejected;
+            this.queueDepth = queueDepth;
+            this.busyWorkers = busyWorkers;
+            this.idleWorkers = idleWorkers;
+        }
+
+        //from the moment the task was queued until a worker started it
+        public LatencyHistogram.Snapshot getQueueWait(ThreadPool.Priority priority) {
+            return queueWait[priority.ordinal()];
+        }
+
+        public LatencyHistogram.Snapshot getExecution(ThreadPool.Priority priority) {
+            return execution[priority.ordinal()];
+        }
+
+        //finished without throwing
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getBusyWorkers() {
+            return busyWorkers;
+        }
+
+        public int getIdleWorkers() {
+            return idleWorkers;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package il.co.ilrd.threadpool;
+
+/*
+ * a cap on how fast and how many tasks of one Priority start, see ThreadPool.setRateLimit.
+ * a token bucket: up to burst tasks may start at once, then permitsPerSecond on average.
+ * permitsPerSecond 0 for no rate, maxConcurrent 0 for no cap on tasks running at once.
+ */
+public class RateLimit {
+    private final double permitsPerSecond;
+    private final int burst;
+    private final int maxConcurrent;
+
+    public RateLimit(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, 0);
+    }
+
+    public RateLimit(double permitsPerSecond, int burst, int maxConcurrent) {
+        if (permitsPerSecond < 0 || Double.isNaN(permitsPerSecond) || burst <= 0 || maxConcurrent < 0)
+            throw new IllegalArgumentException();
+        if (permitsPerSecond == 0 && maxConcurrent == 0)
+            throw new IllegalArgumentException("limits nothing");
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public String toString() {
+        return permitsPerSecond + "/s burst " + burst + ((maxConcurrent > 0) ? " max " + maxConcurrent : "");
+    }
+}
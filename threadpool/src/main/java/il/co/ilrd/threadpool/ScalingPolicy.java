@@ -0,0 +1,52 @@
+package il.co.ilrd.threadpool;
+
+import java.time.Duration;
+
+/*
+ * elastic sizing for ThreadPool.setScalingPolicy:
+ * the pool grows towards maxThreads while more than queueDepthThreshold tasks are queued
+ * or the oldest queued task has waited longer than queueWaitThreshold,
+ * and a worker idle for keepAlive retires as long as more than minThreads are left.
+ */
+public class ScalingPolicy {
+    private final int minThreads;
+    private final int maxThreads;
+    private final Duration keepAlive;
+    private final int queueDepthThreshold;
+    private final Duration queueWaitThreshold;
+
+    public ScalingPolicy(int minThreads, int maxThreads, Duration keepAlive,
+                         int queueDepthThreshold, Duration queueWaitThreshold) {
+        if (minThreads <= 0 || maxThreads < minThreads || queueDepthThreshold < 0)
+            throw new IllegalArgumentException();
+        if (keepAlive == null || keepAlive.isNegative() || keepAlive.isZero()
+                || queueWaitThreshold == null || queueWaitThreshold.isNegative())
+            throw new IllegalArgumentException();
+
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.keepAlive = keepAlive;
+        this.queueDepthThreshold = queueDepthThreshold;
+        this.queueWaitThreshold = queueWaitThreshold;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getQueueDepthThreshold() {
+        return queueDepthThreshold;
+    }
+
+    public Duration getQueueWaitThreshold() {
+        return queueWaitThreshold;
+    }
+}
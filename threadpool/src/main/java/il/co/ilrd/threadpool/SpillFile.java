@@ -0,0 +1,259 @@
+package il.co.ilrd.threadpool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/*
+ * the overflow tier behind ThreadPool.enableSpill: records appended to memory mapped segment files
+ * and taken back highest level first, FIFO within a level. the payload sits in the page cache,
+ * only a small Entry per record stays on the heap.
+ * a record is [state][level][length][payload], the state byte is written last and an END byte
+ * follows every record, so a record cut short by a crash reads as the end of its segment.
+ * a full segment is deleted once everything in it was taken. thread safe.
+ */
+class SpillFile {
+    private static final byte END = 0;
+    private static final byte PENDING = 1;
+    private static final byte TAKEN = 2;
+    private static final int HEADER = 1 + 1 + 4;
+    private static final String PREFIX = "spill-";
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ArrayDeque<Entry>[] levels;
+    private Segment active;
+    private int nextSegment = 0;
+    private volatile int size = 0;
+    private boolean closed = false;
+
+    @SuppressWarnings("unchecked")
+    SpillFile(Path directory, int levels, int segmentBytes, boolean replay) throws IOException {
+        if (levels <= 0 || segmentBytes <= HEADER + 1)
+            throw new IllegalArgumentException();
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.levels = new ArrayDeque[levels];
+        for (int i = 0; i < levels; ++i) {
+            this.levels[i] = new ArrayDeque<>();
+        }
+        for (Path leftover : leftovers().values()) {
+            if (replay) {
+                replay(leftover);
+            } else {
+                Files.deleteIfExists(leftover);
+            }
+        }
+        active = newSegment();
+    }
+
+    //false if the payload does not fit a segment, or once closed
+    synchronized boolean append(int level, byte[] payload, Object attachment) throws IOException {
+        if (closed || HEADER + payload.length + 1 > segmentBytes)
+            return false;
+
+        if (active.writePos + HEADER + payload.length + 1 > segmentBytes) {
+            Segment full = active;
+            active = newSegment();
+            if (full.pending == 0) {
+                full.delete();
+            }
+        }
+        Segment segment = active;
+        int offset = segment.writePos;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.put(offset + 1, (byte) level);
+        buffer.putInt(offset + 2, payload.length);
+        //a view for the bulk copy, absolute bulk puts need JDK 16
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER);
+        view.put(payload);
+        buffer.put(offset + HEADER + payload.length, END);
+        buffer.put(offset, PENDING);
+        segment.writePos = offset + HEADER + payload.length;
+        ++segment.pending;
+
+        levels[level].addLast(new Entry(segment, offset, level, payload.length, attachment));
+        ++size;
+        return true;
+    }
+
+    //the next entry to take, without taking it
+    synchronized Entry peek() {
+        for (int level = levels.length - 1; level >= 0; --level) {
+            Entry head = levels[level].peekFirst();
+            if (head != null)
+                return head;
+        }
+        return null;
+    }
+
+    synchronized byte[] payload(Entry entry) {
+        byte[] payload = new byte[entry.length];
+        ByteBuffer view = entry.segment.buffer.duplicate();
+        view.position(entry.offset + HEADER);
+        view.get(payload);
+        return payload;
+    }
+
+    //entry is the head of its level, see peek
+    synchronized void take(Entry entry) throws IOException {
+        if (levels[entry.level].peekFirst() != entry)
+            throw new IllegalStateException("not the next entry");
+
+        levels[entry.level].pollFirst();
+        --size;
+        Segment segment = entry.segment;
+        segment.buffer.put(entry.offset, TAKEN);
+        if (--segment.pending > 0)
+            return;
+        if (segment == active) {
+            //start over at the front, the END byte hides what is left of the old records
+            segment.writePos = 0;
+            segment.buffer.put(0, END);
+        } else {
+            segment.delete();
+        }
+    }
+
+    //every pending entry, highest level first, taken
+    synchronized List<Entry> drain() throws IOException {
+        List<Entry> drained = new ArrayList<>(size);
+        Entry entry;
+        while ((entry = peek()) != null) {
+            entry.payload = payload(entry);
+            take(entry);
+            drained.add(entry);
+        }
+        return drained;
+    }
+
+    int size() {
+        return size;
+    }
+
+    //drained or not, nothing is left to replay. nothing is appended after it
+    synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        drain();
+        active.delete();
+    }
+
+    //false if records are still pending, they stay in the files for a replay
+    synchronized boolean closeIfEmpty() throws IOException {
+        if (size > 0)
+            return false;
+        close();
+        return true;
+    }
+
+    private TreeMap<Integer, Path> leftovers() throws IOException {
+        TreeMap<Integer, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.put(Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                } catch (NumberFormatException notOurs) {
+                    //leave it alone
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            nextSegment = segments.lastKey() + 1;
+        }
+        return segments;
+    }
+
+    private void replay(Path file) throws IOException {
+        Segment segment = new Segment(file, (int) Math.min(Files.size(file), segmentBytes));
+        int offset = 0;
+        MappedByteBuffer buffer = segment.buffer;
+        while (offset + HEADER <= segment.buffer.capacity()) {
+            byte state = buffer.get(offset);
+            if (state != PENDING && state != TAKEN)
+                break;
+            int level = buffer.get(offset + 1);
+            int length = buffer.getInt(offset + 2);
+            if (length < 0 || offset + HEADER + length > buffer.capacity() || level < 0 || level >= levels.length)
+                break;
+            if (state == PENDING) {
+                levels[level].addLast(new Entry(segment, offset, level, length, null));
+                ++segment.pending;
+                ++size;
+            }
+            offset += HEADER + length;
+        }
+        segment.writePos = offset;
+        if (segment.pending == 0) {
+            segment.delete();
+        }
+    }
+
+    private Segment newSegment() throws IOException {
+        return new Segment(directory.resolve(PREFIX + nextSegment++ + SUFFIX), segmentBytes);
+    }
+
+    static final class Entry {
+        private final Segment segment;
+        private final int offset;
+        private final int level;
+        private final int length;
+        private final Object attachment; //null for a record replayed from an earlier run
+        private byte[] payload; //drain only
+
+        private Entry(Segment segment, int offset, int level, int length, Object attachment) {
+            this.segment = segment;
+            this.offset = offset;
+            this.level = level;
+            this.length = length;
+            this.attachment = attachment;
+        }
+
+        int level() {
+            return level;
+        }
+
+        Object attachment() {
+            return attachment;
+        }
+
+        byte[] drainedPayload() {
+            return payload;
+        }
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int writePos = 0;
+        private int pending = 0;
+
+        Segment(Path path, int bytes) throws IOException {
+            this.path = path;
+            //the mapping outlives the channel
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            }
+        }
+
+        //the pages go once the buffer is collected
+        void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+}
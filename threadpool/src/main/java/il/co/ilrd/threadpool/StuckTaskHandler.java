@@ -0,0 +1,17 @@
+package il.co.ilrd.threadpool;
+
+import java.time.Duration;
+import java.util.concurrent.Future;
+
+/*
+ * told about tasks that run too long, see ThreadPool.setStuckTaskHandler.
+ * called on the pool's timer thread, so keep it short and never block in it.
+ */
+public interface StuckTaskHandler {
+    //task has been running on worker for longer than the threshold, once per run
+    void onStuck(Future<?> task, Thread worker, Duration running);
+
+    //task ran past the execution timeout it was submitted with and was cancelled
+    default void onOverrun(Future<?> task, Duration timeout) {
+    }
+}
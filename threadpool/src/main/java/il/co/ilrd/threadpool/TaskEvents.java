@@ -0,0 +1,104 @@
+package il.co.ilrd.threadpool;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/*
+ * JDK Flight Recorder events for the life of one task, under "Thread Pool" in JMC:
+ * java -XX:StartFlightRecording=filename=pool.jfr ... and jfr print --categories "Thread Pool" pool.jfr
+ * ThreadPool fills one in only when isEnabled(), so with no recording running a trace is
+ * an allocation the JIT removes and a branch.
+ */
+final class TaskEvents {
+    private static final ThreadPool.Priority[] PRIORITIES = ThreadPool.Priority.values();
+
+    private TaskEvents() {
+    }
+
+    static String priority(int level) {
+        return (level >= 0 && level < PRIORITIES.length) ? PRIORITIES[level].name() : Integer.toString(level);
+    }
+
+    @Name("il.co.ilrd.threadpool.TaskEnqueued")
+    @Label("Task Enqueued")
+    @Category("Thread Pool")
+    @Description("A task goes into the queue, a Task Rejected follows if it does not fit")
+    @StackTrace(false)
+    static final class Enqueued extends Event {
+        @Label("Priority")
+        String priority;
+
+        @Label("Queue Depth")
+        int queueDepth;
+    }
+
+    @Name("il.co.ilrd.threadpool.TaskDequeued")
+    @Label("Task Dequeued")
+    @Category("Thread Pool")
+    @Description("A worker takes a task to run it")
+    @StackTrace(false)
+    static final class Dequeued extends Event {
+        @Label("Priority")
+        String priority;
+
+        @Label("Queue Depth")
+        int queueDepth;
+
+        @Label("Wait Time")
+        @Timespan
+        long waitTime;
+
+        @Label("Worker")
+        String worker;
+    }
+
+    @Name("il.co.ilrd.threadpool.TaskExecution")
+    @Label("Task Execution")
+    @Category("Thread Pool")
+    @Description("A task running, from start to end")
+    @StackTrace(false)
+    static final class Execution extends Event {
+        @Label("Priority")
+        String priority;
+
+        @Label("Wait Time")
+        @Timespan
+        long waitTime;
+
+        @Label("Worker")
+        String worker;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("il.co.ilrd.threadpool.TaskCancelled")
+    @Label("Task Cancelled")
+    @Category("Thread Pool")
+    static final class Cancelled extends Event {
+        @Label("Priority")
+        String priority;
+
+        @Label("Was Running")
+        boolean running;
+    }
+
+    @Name("il.co.ilrd.threadpool.TaskRejected")
+    @Label("Task Rejected")
+    @Category("Thread Pool")
+    static final class Rejected extends Event {
+        @Label("Priority")
+        String priority;
+
+        @Label("Queue Depth")
+        int queueDepth;
+
+        @Label("Reason")
+        String reason;
+    }
+}
@@ -0,0 +1,144 @@
+package il.co.ilrd.threadpool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/*
+ * a DAG of callables for ThreadPool.submit(TaskGraph). a node can only depend on nodes added
+ * before it, so there are no cycles to look for. once submitted, a node is queued the moment its
+ * last dependency completes, and one that fails or is cancelled fails or cancels everything after it.
+ */
+public class TaskGraph {
+    private final List<Node<?>> nodes = new ArrayList<>();
+    private boolean criticalPathFirst = false;
+    private boolean submitted = false;
+
+    public <T> Node<T> add(Callable<T> task, ThreadPool.Priority priority, Node<?>... dependsOn) {
+        return this.add(task, priority, 1, dependsOn);
+    }
+
+    //cost is an estimate of how long the task runs relative to the others, only critical path first uses it
+    public synchronized <T> Node<T> add(Callable<T> task, ThreadPool.Priority priority, long cost, Node<?>... dependsOn) {
+        if (task == null || priority == null || cost <= 0)
+            throw new IllegalArgumentException();
+        if (submitted)
+            throw new IllegalStateException("already submitted");
+
+        Node<T> node = new Node<>(this, nodes.size(), task, priority, cost);
+        for (Node<?> dependency : dependsOn) {
+            if (dependency.graph != this)
+                throw new IllegalArgumentException("not a node of this graph");
+            if (!node.dependencies.contains(dependency)) {
+                node.dependencies.add(dependency);
+                dependency.dependents.add(node);
+            }
+        }
+        nodes.add(node);
+        return node;
+    }
+
+    /*
+     * the declared priorities are replaced by how much work still hangs off each node:
+     * the top third of the longest remaining path runs HIGH, the middle MED, the rest LOW,
+     * so the chain that decides when the graph is done never waits behind side work.
+     */
+    public synchronized void setCriticalPathFirst(boolean enabled) {
+        criticalPathFirst = enabled;
+    }
+
+    public synchronized List<Node<?>> nodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    //in dependency order, with the Priority each node runs at. called once, by ThreadPool.submit
+    synchronized List<Node<?>> seal() {
+        if (submitted)
+            throw new IllegalStateException("already submitted");
+
+        submitted = true;
+        if (criticalPathFirst) {
+            assignCriticalPathPriorities();
+        }
+        return new ArrayList<>(nodes);
+    }
+
+    //dependents always come after their dependencies, so one backwards pass sees them first
+    private void assignCriticalPathPriorities() {
+        long[] remaining = new long[nodes.size()];
+        long longest = 0;
+        for (int i = nodes.size() - 1; i >= 0; --i) {
+            Node<?> node = nodes.get(i);
+            long after = 0;
+            for (Node<?> dependent : node.dependents) {
+                after = Math.max(after, remaining[dependent.index]);
+            }
+            remaining[i] = node.cost + after;
+            longest = Math.max(longest, remaining[i]);
+        }
+        for (Node<?> node : nodes) {
+            long share = remaining[node.index] * 3;
+            node.runAt = (share > longest * 2) ? ThreadPool.Priority.HIGH
+                    : (share > longest) ? ThreadPool.Priority.MED : ThreadPool.Priority.LOW;
+        }
+    }
+
+    public static final class Node<T> {
+        private final TaskGraph graph;
+        private final int index;
+        private final Callable<T> task;
+        private final ThreadPool.Priority priority;
+        private final long cost;
+        private final List<Node<?>> dependencies = new ArrayList<>(2);
+        private final List<Node<?>> dependents = new ArrayList<>(2);
+        private ThreadPool.Priority runAt;
+        private volatile Future<T> future;
+
+        private Node(TaskGraph graph, int index, Callable<T> task, ThreadPool.Priority priority, long cost) {
+            this.graph = graph;
+            this.index = index;
+            this.task = task;
+            this.priority = priority;
+            this.runAt = priority;
+            this.cost = cost;
+        }
+
+        //the task's future, once the graph is submitted
+        public Future<T> future() {
+            Future<T> submitted = future;
+            if (submitted == null)
+                throw new IllegalStateException("not submitted yet");
+
+            return submitted;
+        }
+
+        public ThreadPool.Priority getPriority() {
+            return priority;
+        }
+
+        //the declared Priority, or the critical path one
+        public ThreadPool.Priority getEffectivePriority() {
+            synchronized (graph) {
+                return runAt;
+            }
+        }
+
+        int index() {
+            return index;
+        }
+
+        Callable<T> task() {
+            return task;
+        }
+
+        List<Node<?>> dependencies() {
+            return dependencies;
+        }
+
+        void future(Future<T> submitted) {
+            future = submitted;
+        }
+    }
+}
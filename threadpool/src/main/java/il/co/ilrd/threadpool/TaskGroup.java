@@ -0,0 +1,107 @@
+package il.co.ilrd.threadpool;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * a tenant for ThreadPool.submit(TaskGroup, ...). within a Priority, queued groups share the workers in
+ * proportion to their weight whatever their backlog (weighted fair queuing), and a group with a
+ * concurrency cap never has more than that many tasks queued or running, the rest wait in the group.
+ * fair order needs a LOCKED_HEAP queue with the STRICT policy, the cap works everywhere.
+ * a group belongs to one pool.
+ */
+public class TaskGroup {
+    //virtual time one task costs a group of weight 1
+    static final long FAIR_SCALE = 1 << 20;
+
+    private final String name;
+    private final int weight;
+    private final int maxConcurrent;
+    private final long cost;
+    private final AtomicLongArray finishTags = new AtomicLongArray(ThreadPool.Priority.values().length);
+    //maxConcurrent only, guarded by this
+    private final ArrayDeque<Object>[] waiting;
+    private int admitted = 0;
+
+    public TaskGroup(String name, int weight) {
+        this(name, weight, 0);
+    }
+
+    //maxConcurrent 0 for no cap
+    @SuppressWarnings("unchecked")
+    public TaskGroup(String name, int weight, int maxConcurrent) {
+        if (name == null || weight <= 0 || weight > FAIR_SCALE || maxConcurrent < 0)
+            throw new IllegalArgumentException();
+
+        this.name = name;
+        this.weight = weight;
+        this.maxConcurrent = maxConcurrent;
+        this.cost = FAIR_SCALE / weight;
+        this.waiting = new ArrayDeque[ThreadPool.Priority.values().length];
+        for (int i = 0; i < waiting.length; ++i) {
+            waiting[i] = new ArrayDeque<>();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    //tasks over the cap, not queued yet
+    public synchronized int waitingCount() {
+        int count = 0;
+        for (ArrayDeque<Object> level : waiting) {
+            count += level.size();
+        }
+        return count;
+    }
+
+    /*
+     * the virtual finish time of the group's next task at level: it starts once the group's previous
+     * one is done or at virtualTime, whichever is later. a heavier group's tasks cost less of it.
+     */
+    long nextTag(int level, long virtualTime) {
+        return finishTags.accumulateAndGet(level, virtualTime, (finish, now) -> Math.max(finish, now) + cost);
+    }
+
+    //true if task may be queued now, otherwise it waits for a slot
+    synchronized boolean admit(Object task, int level) {
+        if (maxConcurrent == 0)
+            return true;
+        if (admitted < maxConcurrent) {
+            ++admitted;
+            return true;
+        }
+        waiting[level].addLast(task);
+        return false;
+    }
+
+    /*
+     * done is over: the waiting task that takes its slot over, highest level first, or null.
+     * a cancelled task may never have had a slot, then it only leaves the queue.
+     */
+    synchronized Object release(Object done, int level, boolean cancelled) {
+        if (cancelled && waiting[level].remove(done))
+            return null;
+        for (int i = waiting.length - 1; i >= 0; --i) {
+            Object next = waiting[i].pollFirst();
+            if (next != null)
+                return next;
+        }
+        --admitted;
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(weight " + weight + ((maxConcurrent > 0) ? ", max " + maxConcurrent + ")" : ")");
+    }
+}
@@ -0,0 +1,3012 @@
+package il.co.ilrd.threadpool;
+/*
+ * ThreadPool WS by Tanya Shk
+ * April 24,2022,
+ * reviewed by A.A.concurrency
+ */
+
+
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class ThreadPool implements Executor {
+    //protected for testing purposes!
+    protected WaitableQueue<Task<?>> wpq;
+    protected List<ThreadAction> threadsList;
+    protected final ConcurrentHashMap<Object, KeyLane> keyLanes = new ConcurrentHashMap<>();
+    //submitDedup's key to the task that is queued or running for it
+    protected final ConcurrentHashMap<Object, Future<?>> inFlight = new ConcurrentHashMap<>();
+    //per Priority, null where there is no RateLimit. copy on write under resizeLock, null once shut
+    private volatile Throttle[] throttles;
+    //per Priority, the fair tag of the last group task started, see TaskGroup
+    private final AtomicLongArray virtualTime = new AtomicLongArray(Priority.values().length);
+    private volatile int numOfThreadz;
+    private static final long UNRANKED = Long.MIN_VALUE;
+    private final boolean workStealing;
+    //virtual mode only: one dispatcher thread, numOfThreadz caps the tasks running at once
+    private final ThreadFactory virtualFactory;
+    private final VirtualPermits virtualPermits;
+    //the virtual threads running a task right now, for shutdownNow to interrupt
+    private final Set<Thread> virtualRunning;
+    private static final long MAX_STEAL_PARK_MILLIS = 16;
+    //a joining worker with nothing to help with rescans the queues this often
+    private static final long HELP_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private volatile int workerBatchSize = 1;
+    private volatile IdleStrategy idleStrategy = IdleStrategy.PARK;
+    //workers in the spin or yield phase of an IdleStrategy, while there are any submit wakes nobody
+    private final AtomicInteger spinningWorkers = new AtomicInteger();
+    //workers that spun for nothing, or stealers with nothing to steal, parked outside wpq. signalWork unparks them
+    private final ConcurrentLinkedDeque<ThreadAction> parkedWorkers = new ConcurrentLinkedDeque<>();
+    //default executors of the CompletableFutures from submitAsync, one per Priority
+    private final Executor[] dependentExecutors = new Executor[Priority.values().length];
+    //null while metrics are off, then nothing is timed or counted at all
+    private volatile PoolMetrics metrics;
+    //null unless the pool sizes itself, see setScalingPolicy
+    private volatile ScalingPolicy scaling;
+    private Scaler scaler;
+    private volatile boolean isPaused = false;
+    //null unless setStuckTaskHandler, the check runs on the timer wheel
+    private volatile StuckTaskHandler stuckHandler;
+    private volatile StuckCheck stuckCheck;
+    //guards numOfThreadz against workers that grow, retire and resize at the same time
+    private final ReentrantLock resizeLock = new ReentrantLock();
+    //paused workers wait on it in passGate, resume and shutdownNow signal it
+    private final Condition resumed = resizeLock.newCondition();
+    //submitters in awaitDeferralRoom, signalled when a task leaves wpq or a deque to run or is let go
+    private final ReentrantLock roomLock = new ReentrantLock();
+    private final Condition roomFreed = roomLock.newCondition();
+    private final AtomicInteger roomWaiters = new AtomicInteger();
+    //platform workers started and not yet gone, numOfThreadz is how many there should be
+    private volatile int liveWorkers = 0;
+    //workers started and not out of run() yet, the last one out after shutdown closes the spill tier
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private static final long SCALE_CHECK_MILLIS = 10;
+    //null unless enableSpill, refills from it run under spillLock
+    private volatile SpillFile spill;
+    private volatile int spillHighWater;
+    //tasks in the workers' local deques, they count against the capacity of wpq
+    private final AtomicInteger localQueued = new AtomicInteger();
+    private volatile int spillLowWater;
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private static final int SPILL_SEGMENT_BYTES = 16 << 20;
+    //started by the first schedule call, see TimerWheel
+    private volatile TimerWheel timers;
+    private static final long TIMER_TICK_MILLIS = 1;
+    private static final int TIMER_WHEEL_SIZE = 512;
+    private final SchedulingPolicy scheduling;
+    private volatile SaturationPolicy saturation = SaturationPolicy.BLOCK;
+    //AGING: how long a task waits to gain one priority level
+    private volatile long agingNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    //DEADLINE: the deadline of a task submitted without one, by Priority
+    private final long[] defaultDeadlines = {
+            TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(10)};
+
+   public ThreadPool(){
+        this(Runtime.getRuntime().availableProcessors() * 2);
+   }
+    public ThreadPool(int numberOfThreads) {
+        this(numberOfThreads, QueueType.LOCKED_HEAP);
+    }
+    //wpq holds up to queueCapacity tasks, by default as many as there are threads. below 11 it is raised to 11
+    public ThreadPool(int numberOfThreads, int queueCapacity) {
+        this(numberOfThreads, QueueType.LOCKED_HEAP, WorkerMode.SHARED_QUEUE, SchedulingPolicy.STRICT, queueCapacity);
+    }
+    public ThreadPool(int numberOfThreads, QueueType queueType) {
+        this(numberOfThreads, queueType, WorkerMode.SHARED_QUEUE);
+    }
+    public ThreadPool(int numberOfThreads, QueueType queueType, WorkerMode workerMode) {
+        this(numberOfThreads, queueType, workerMode, SchedulingPolicy.STRICT);
+    }
+    public ThreadPool(int numberOfThreads, QueueType queueType, WorkerMode workerMode, SchedulingPolicy schedulingPolicy) {
+        this(numberOfThreads, queueType, workerMode, schedulingPolicy, numberOfThreads);
+    }
+    //the queues never hold fewer than 11 tasks, a smaller queueCapacity is raised to 11
+    public ThreadPool(int numberOfThreads, QueueType queueType, WorkerMode workerMode, SchedulingPolicy schedulingPolicy,
+                      int queueCapacity) {
+        if (numberOfThreads <= 0 || queueCapacity <= 0 || queueType == null || workerMode == null || schedulingPolicy == null)
+           throw new IllegalArgumentException();
+        //the lanes are FIFO per priority, only the heap can order by anything else
+        if (queueType == QueueType.MULTI_LANE && schedulingPolicy != SchedulingPolicy.STRICT)
+           throw new IllegalArgumentException("MULTI_LANE only supports STRICT scheduling");
+
+        numOfThreadz = numberOfThreads;
+        scheduling = schedulingPolicy;
+        workStealing = (workerMode == WorkerMode.WORK_STEALING);
+        if (workerMode == WorkerMode.VIRTUAL) {
+            virtualFactory = virtualThreadFactory();
+            virtualPermits = new VirtualPermits(numOfThreadz);
+            virtualRunning = ConcurrentHashMap.newKeySet();
+        } else {
+            virtualFactory = null;
+            virtualPermits = null;
+            virtualRunning = null;
+        }
+        wpq = (queueType == QueueType.MULTI_LANE)
+                ? new WaitableLaneQueue<>(NUM_OF_LANES, ThreadPool::laneOf, queueCapacity)
+                : new WaitablePriorityQueueSem<>(queueCapacity);
+        for (Priority priority : Priority.values()) {
+            dependentExecutors[priority.ordinal()] = run -> executeDependent(run, priority);
+        }
+        //workers scan their peers when stealing, so the list has to be safe to iterate
+        threadsList = new CopyOnWriteArrayList<>();
+
+        for(int i = 0; i < numOfWorkers(); ++i){
+            startWorker();
+        }
+
+    }
+
+    public enum Priority {
+        LOW,
+        MED,
+        HIGH
+    }
+
+    public enum QueueType {
+        LOCKED_HEAP, // single lock around a heap, any priority value
+        MULTI_LANE   // lock-free lane per priority, see WaitableLaneQueue
+    }
+
+    public enum WorkerMode {
+        SHARED_QUEUE, // every worker takes from wpq
+        WORK_STEALING, // tasks submitted from a worker stay in its own deque, idle workers steal
+        VIRTUAL        // a dispatcher runs each task on its own virtual thread, JDK 21+
+    }
+
+    /*
+     * the order of wpq. AGING and DEADLINE give each task a rank once, when it is queued,
+     * so the heap never has to be reordered and stays O(log n). both need LOCKED_HEAP.
+     */
+    public enum SchedulingPolicy {
+        STRICT,  // highest priority first, a steady stream of HIGH starves LOW
+        AGING,   // a task gains one priority level per aging interval it waits, see setAgingInterval
+        DEADLINE // earliest deadline first, tasks without one get their Priority's default deadline
+    }
+
+    //what submit does when wpq is full (with the local deques, see pushLocal), trySubmit and the timed submit never block past their timeout
+    public enum SaturationPolicy {
+        BLOCK,       // wait for room
+        REJECT,      // throw RejectedExecutionException
+        CALLER_RUNS, // run the task on the submitting thread
+        DROP_LOWEST  // cancel a queued task that would run after this one, reject if there is none
+    }
+
+    //LOW, MED, HIGH
+    private static final int NUM_OF_LANES = Priority.values().length;
+
+    private static int laneOf(Task<?> task) {
+        return task.realPriority;
+    }
+
+    public Future<Void> submit(Runnable task, Priority priority) throws InterruptedException {
+       return this.submit(task, priority, null);
+    }
+    public <T> Future<T> submit(Runnable task, Priority priority, T returnValue) throws InterruptedException {
+       return enqueueTask(new Task<>(task, returnValue, priority.ordinal()));
+    }
+    public <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+        return this.submit(task, Priority.MED);
+    }
+    public <T> Future<T> submit(Callable<T> task, Priority priority) throws InterruptedException {
+        return enqueueTask(new Task<>(task, priority.ordinal()));
+    }
+    public <T> Future<T> submit(Callable<T> task, Instant deadline) throws InterruptedException {
+        return this.submit(task, Priority.MED, deadline);
+    }
+    //DEADLINE scheduling only. the Priority still counts for metrics, the order is by deadline alone
+    public <T> Future<T> submit(Callable<T> task, Priority priority, Instant deadline) throws InterruptedException {
+        if (scheduling != SchedulingPolicy.DEADLINE)
+           throw new IllegalStateException("deadlines need SchedulingPolicy.DEADLINE");
+
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        createTask.rank = System.nanoTime() + nanosUntil(deadline);
+        return enqueueTask(createTask);
+    }
+
+    private static long nanosUntil(Instant deadline) {
+        Duration left = Duration.between(Instant.now(), deadline);
+        //a century either way is as good as forever, and nanoTime + it cannot overflow
+        long far = TimeUnit.DAYS.toNanos(36500);
+        if (left.getSeconds() > TimeUnit.NANOSECONDS.toSeconds(far))
+            return far;
+        if (left.getSeconds() < -TimeUnit.NANOSECONDS.toSeconds(far))
+            return -far;
+        return left.toNanos();
+    }
+
+    /*
+     * tasks with equal keys run one at a time in submission order, tasks with different keys in parallel.
+     * only the head of a key's lane is queued, the next one is queued once it is done (or cancelled),
+     * so no worker ever waits on another key. a key costs nothing once its lane is empty.
+     */
+    public <T> Future<T> submit(Object key, Callable<T> task, Priority priority) throws InterruptedException {
+        if (key == null)
+            throw new IllegalArgumentException();
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        createTask.key = key;
+        boolean[] isHead = new boolean[1];
+        keyLanes.compute(key, (k, lane) -> {
+            if (lane == null) {
+                isHead[0] = true;
+                return new KeyLane(createTask);
+            }
+            lane.waiting.add(createTask);
+            return lane;
+        });
+        if (isHead[0]) {
+            try {
+                enqueueTask(createTask);
+            } catch (RejectedExecutionException | InterruptedException e) {
+                //the rest of the lane must not wait on a task that never ran
+                createTask.abandon();
+                throw e;
+            }
+        }
+        return createTask;
+    }
+
+    //the head of a key's lane is done, queue the next task of that key
+    private void advanceLane(Task<?> done) {
+        List<Task<?>> orphans = new ArrayList<>();
+        Task<?>[] next = new Task<?>[1];
+        keyLanes.computeIfPresent(done.key, (k, lane) -> {
+            if (lane.head != done)
+                return lane; //a waiting task was cancelled, it is skipped when its turn comes
+            Task<?> waiting;
+            while ((waiting = lane.waiting.poll()) != null && waiting.isDone()) {
+            }
+            //nobody is left to run it
+            if (waiting != null && nobodyLeftToRun()) {
+                orphans.add(waiting);
+                orphans.addAll(lane.waiting);
+                return null;
+            }
+            lane.head = waiting;
+            next[0] = waiting;
+            return (waiting == null) ? null : lane;
+        });
+        for (Task<?> orphan : orphans) {
+            orphan.cancel(false);
+        }
+        if (next[0] != null) {
+            try {
+                handOff(next[0]);
+            } catch (RejectedExecutionException e) {
+                next[0].abandon();
+            }
+        }
+    }
+
+    /*
+     * while a task of key is queued or running, submitDedup with the same key returns its future
+     * instead of queuing the same work again, and a caller asking for a higher Priority raises the
+     * queued task to it. the key is free again once the task is done. tasks sharing a key must
+     * return the same type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> submitDedup(Object key, Callable<T> task, Priority priority) throws InterruptedException {
+        if (key == null)
+            throw new IllegalArgumentException();
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        createTask.dedupKey = key;
+        Future<?> existing;
+        while ((existing = inFlight.putIfAbsent(key, createTask)) != null) {
+            if (!existing.isDone()) {
+                promote((Task<?>) existing, createTask.realPriority);
+                return (Future<T>) existing;
+            }
+            //done, its afterDone is about to free the key
+            inFlight.remove(key, existing);
+        }
+        try {
+            enqueueTask(createTask);
+        } catch (RejectedExecutionException | InterruptedException e) {
+            createTask.abandon();
+            throw e;
+        }
+        return createTask;
+    }
+
+    /*
+     * raises a task still waiting in wpq or a worker's deque to priority, it keeps its place among
+     * the tasks it had already waited longer than. one in a worker's batch or in the spill runs as it is.
+     */
+    private void promote(Task<?> task, int priority) {
+        if (task.realPriority >= priority)
+            return;
+
+        Consumer<Task<?>> raise = queued -> {
+            int from = queued.realPriority;
+            if (from >= priority)
+                return;
+            queued.realPriority = priority;
+            if (scheduling == SchedulingPolicy.AGING) {
+                queued.rank -= (priority - from) * agingNanos;
+            }
+        };
+        if (wpq.update(task, raise) || !workStealing)
+            return;
+
+        for (ThreadAction worker : threadsList) {
+            int from = task.realPriority;
+            if (from < priority && worker.localDeques[from].remove(task)) {
+                raise.accept(task);
+                worker.localDeques[task.realPriority].addLast(task);
+                return;
+            }
+        }
+    }
+
+    /*
+     * within its Priority the task waits its group's turn, groups get turns in proportion to their
+     * weight. a task of a group at its concurrency cap waits in the group until one of the group's
+     * tasks is done. tasks without a group are never held back by one, they go ahead of the groups'.
+     */
+    public <T> Future<T> submit(TaskGroup group, Callable<T> task, Priority priority) throws InterruptedException {
+        if (group == null)
+            throw new IllegalArgumentException();
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        createTask.group = group;
+        if (group.admit(createTask, createTask.realPriority)) {
+            try {
+                enqueueTask(createTask);
+            } catch (RejectedExecutionException | InterruptedException e) {
+                //gives its slot back
+                createTask.abandon();
+                throw e;
+            }
+        }
+        return createTask;
+    }
+
+    //a task of a capped group is done, queue the group's next one in its slot
+    private void releaseSlot(Task<?> done) {
+        TaskGroup group = done.group;
+        Task<?> next = (Task<?>) group.release(done, done.realPriority, done.state == CANCELLED);
+        //nobody is left to run them, each one's slot goes straight to the one after it
+        while (next != null && nobodyLeftToRun()) {
+            if (!next.orphan())
+                return; //cancelled meanwhile, it passes the slot on itself
+            next = (Task<?>) group.release(next, next.realPriority, false);
+        }
+        if (next != null) {
+            try {
+                handOff(next);
+            } catch (RejectedExecutionException e) {
+                next.abandon();
+            }
+        }
+    }
+
+    /*
+     * cancelled with cancel(true) once it has run for executionTimeout, the clock starts when a worker
+     * takes it. a task that ignores interrupts keeps its worker until it returns all the same.
+     */
+    public <T> Future<T> submit(Callable<T> task, Priority priority, Duration executionTimeout) throws InterruptedException {
+        if (executionTimeout.isNegative() || executionTimeout.isZero())
+            throw new IllegalArgumentException();
+
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        createTask.executionTimeout = executionTimeout.toNanos();
+        return enqueueTask(createTask);
+    }
+
+    /*
+     * handler hears of every task that has been running for longer than threshold (platform workers only),
+     * and of every task cancelled for overrunning its execution timeout. null turns it off.
+     * checked every quarter threshold, so a task is reported between 1 and 1.25 thresholds in.
+     */
+    public void setStuckTaskHandler(Duration threshold, StuckTaskHandler handler) {
+        if (handler != null && (threshold == null || threshold.isNegative() || threshold.isZero()))
+            throw new IllegalArgumentException();
+
+        StuckCheck previous = stuckCheck;
+        if (previous != null) {
+            previous.stopped = true;
+        }
+        stuckHandler = handler;
+        if (handler == null) {
+            stuckCheck = null;
+            return;
+        }
+        StuckCheck check = new StuckCheck(threshold.toNanos());
+        stuckCheck = check;
+        check.rearm();
+    }
+
+    private class StuckCheck implements Runnable {
+        private final long thresholdNanos;
+        private volatile boolean stopped = false;
+
+        StuckCheck(long thresholdNanos) {
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        void rearm() {
+            if (stopped)
+                return;
+            try {
+                timers().add(this, System.nanoTime() + Math.max(thresholdNanos / 4, TimeUnit.MILLISECONDS.toNanos(TIMER_TICK_MILLIS)));
+            } catch (RejectedExecutionException | IllegalStateException shut) {
+                //nothing left to watch
+            }
+        }
+
+        //on the ticker thread
+        @Override
+        public void run() {
+            StuckTaskHandler handler = stuckHandler;
+            if (stopped || handler == null)
+                return;
+
+            long now = System.nanoTime();
+            for (ThreadAction worker : threadsList) {
+                Task<?> running = worker.current;
+                if (running == null || running.state != RUNNING)
+                    continue;
+                long startedAt = running.startedAt;
+                if (startedAt == 0 || running.reportedRun == startedAt || now - startedAt < thresholdNanos)
+                    continue;
+                running.reportedRun = startedAt;
+                try {
+                    handler.onStuck(running, worker, Duration.ofNanos(now - startedAt));
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            rearm();
+        }
+    }
+
+    //never blocks and ignores the SaturationPolicy, null if wpq is full
+    public <T> Future<T> trySubmit(Callable<T> task, Priority priority) throws InterruptedException {
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        return admit(createTask, 0) ? createTask : null;
+    }
+
+    //waits up to the timeout for room in wpq, null if none came up
+    public <T> Future<T> submit(Callable<T> task, Priority priority, long timeout, TimeUnit unit) throws InterruptedException {
+        Task<T> createTask = new Task<>(task, priority.ordinal());
+        return admit(createTask, Math.max(unit.toNanos(timeout), 0)) ? createTask : null;
+    }
+
+    public void setSaturationPolicy(SaturationPolicy policy) {
+        if (policy == null)
+            throw new IllegalArgumentException();
+
+        saturation = policy;
+    }
+
+    public SaturationPolicy getSaturationPolicy() {
+        return saturation;
+    }
+
+    private <T> Task<T> enqueueTask(Task<T> createTask) throws InterruptedException {
+        admit(createTask, -1);
+        return createTask;
+    }
+
+    //timeoutNanos < 0 leaves a full wpq to the SaturationPolicy, false if the timeout ran out first
+    private boolean admit(Task<?> createTask, long timeoutNanos) throws InterruptedException {
+        if(isShut) {
+            traceRejected(createTask, "shut down");
+            throw new RejectedExecutionException();
+        }
+
+        stamp(createTask, clock());
+        if (pushLocal(createTask) || trySpill(createTask))
+            return true;
+
+        if (timeoutNanos < 0) {
+            if (deferralFull() || !wpq.offer(createTask)) {
+                saturated(createTask);
+            }
+        } else {
+            long deadline = System.nanoTime() + timeoutNanos;
+            if (!awaitDeferralRoom(timeoutNanos)
+                    || !wpq.offer(createTask, Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS))
+                return false;
+        }
+        //raced with shutdown, the workers may be gone already
+        if (isShut && wpq.remove(createTask))
+            throw new RejectedExecutionException();
+        signalWork(1);
+        return true;
+    }
+
+    private void saturated(Task<?> createTask) throws InterruptedException {
+        switch (saturation) {
+            case BLOCK:
+                awaitDeferralRoom(-1);
+                wpq.enqueue(createTask);
+                return;
+            case CALLER_RUNS:
+                createTask.execute();
+                return;
+            case DROP_LOWEST:
+                Task<?> victim;
+                while ((victim = wpq.pollLowerThan(createTask)) != null) {
+                    victim.drop();
+                    if (!deferralFull() && wpq.offer(createTask))
+                        return;
+                }
+                //nothing queued runs after createTask, so it is the one to go
+                throw rejected(createTask);
+            default:
+                throw rejected(createTask);
+        }
+    }
+
+    private RejectedExecutionException rejected(Task<?> createTask) {
+        PoolMetrics recorder = metrics;
+        if (recorder != null) {
+            recorder.taskRejected();
+        }
+        traceRejected(createTask, "queue full");
+        return new RejectedExecutionException("queue full");
+    }
+
+    /*
+     * an overflow tier for tasks whose Callable or Runnable is Serializable: once highWaterMark tasks are
+     * queued they are serialized into memory mapped segment files in directory instead of wpq, and workers
+     * move them back, highest priority first, as wpq drains to lowWaterMark. their futures stay on the heap,
+     * the payloads do not. other tasks never spill and may overtake spilled ones of their priority.
+     * with replay, tasks an earlier run left in directory are queued again as fire-and-forget tasks,
+     * otherwise they are deleted. returns how many were replayed.
+     */
+    public int enableSpill(Path directory, int highWaterMark, int lowWaterMark, boolean replay) throws IOException {
+        //past the capacity wpq would be full before anything spilled
+        if (lowWaterMark < 0 || highWaterMark <= lowWaterMark || highWaterMark > wpq.capacity())
+            throw new IllegalArgumentException();
+
+        int replayed;
+        resizeLock.lock();
+        try {
+            if (isShut)
+                throw new RejectedExecutionException();
+            if (spill != null)
+                throw new IllegalStateException("spill already enabled");
+
+            spillHighWater = highWaterMark;
+            spillLowWater = lowWaterMark;
+            spill = new SpillFile(directory, Priority.values().length, SPILL_SEGMENT_BYTES, replay);
+            replayed = spill.size();
+        } finally {
+            resizeLock.unlock();
+        }
+        refillSpill();
+        return replayed;
+    }
+
+    //past the high water mark, or with spilled tasks still ahead of it, a Serializable task goes to the spill file
+    private boolean trySpill(Task<?> task) {
+        SpillFile tier = spill;
+        if (tier == null || task.periodic != null || !(task.gullible instanceof Serializable))
+            return false;
+        if (tier.size() == 0 && wpq.size() + localQueued.get() < spillHighWater)
+            return false;
+
+        Object gullible = task.gullible;
+        byte[] payload = serialize(gullible);
+        if (payload == null)
+            return false;
+        //a refill may hand it to a worker before append returns
+        task.gullible = null;
+        try {
+            if (!tier.append(task.realPriority, payload, task)) {
+                task.gullible = gullible;
+                return false;
+            }
+        } catch (IOException e) {
+            task.gullible = gullible;
+            return false;
+        }
+        //the workers may have drained wpq while we appended
+        refillSpill();
+        return true;
+    }
+
+    /*
+     * once wpq is down to the low water mark, moves spilled tasks back until it is at the high one.
+     * never blocks on wpq, a task that does not fit stays in the file for the next refill.
+     * called by workers before they take a task, and by whoever spilled.
+     */
+    private void refillSpill() {
+        SpillFile tier = spill;
+        if (tier == null || tier.size() == 0 || wpq.size() > spillLowWater)
+            return;
+
+        spillLock.lock();
+        try {
+            SpillFile.Entry entry;
+            while (wpq.size() < spillHighWater && (entry = tier.peek()) != null) {
+                Task<?> task = unspill(entry, tier.payload(entry));
+                if (task != null && !wpq.offer(task))
+                    return;
+                tier.take(entry);
+                if (task != null) {
+                    signalWork(1);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    //the task to queue again, null if there is nothing to run
+    private Task<?> unspill(SpillFile.Entry entry, byte[] payload) {
+        Task<?> task = (Task<?>) entry.attachment();
+        if (task != null && task.isDone())
+            return null; //cancelled while it was spilled
+
+        Object gullible;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            gullible = in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            if (task != null) {
+                task.fail(e);
+            } else {
+                e.printStackTrace();
+            }
+            return null;
+        }
+        if (task == null) {
+            //replayed from an earlier run, there is no future waiting for it
+            if (!(gullible instanceof Callable) && !(gullible instanceof Runnable))
+                return null;
+            task = (gullible instanceof Callable)
+                    ? new Task<>((Callable<?>) gullible, entry.level())
+                    : new Task<>((Runnable) gullible, null, entry.level());
+            stamp(task, clock());
+        } else {
+            task.gullible = gullible;
+        }
+        return task;
+    }
+
+    private static byte[] serialize(Object gullible) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(gullible);
+        } catch (IOException notSerializable) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+     * completed straight from the task, nobody has to block in get().
+     * dependent *Async stages run on this pool at the same Priority unless given an executor,
+     * cancelling the returned future cancels the task if it has not started.
+     */
+    public <T> CompletableFuture<T> submitAsync(Callable<T> task) throws InterruptedException {
+        return this.submitAsync(task, Priority.MED);
+    }
+    public <T> CompletableFuture<T> submitAsync(Callable<T> task, Priority priority) throws InterruptedException {
+        return enqueueAsync(new Task<>(task, priority.ordinal()), priority);
+    }
+    public CompletableFuture<Void> submitAsync(Runnable task, Priority priority) throws InterruptedException {
+        return enqueueAsync(new Task<>(task, null, priority.ordinal()), priority);
+    }
+
+    private <T> CompletableFuture<T> enqueueAsync(Task<T> createTask, Priority priority) throws InterruptedException {
+        PoolFuture<T> stage = new PoolFuture<>(priority);
+        stage.task = createTask;
+        createTask.completion = stage;
+        enqueueTask(createTask);
+        return stage;
+    }
+
+    /*
+     * runs dependent stages. called from one of our workers it must not block on a full queue,
+     * every worker could end up waiting on it, so the stage runs right away instead.
+     * the next task of a key's lane is handed off the same way.
+     */
+    private void executeDependent(Runnable run, Priority priority) {
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        handOff(new Task<>(run, null, priority.ordinal()));
+    }
+
+    private void handOff(Task<?> task) {
+        stamp(task, clock());
+        if (pushLocal(task))
+            return;
+
+        if (onPoolThread()) {
+            if (wpq.offer(task)) {
+                signalWork(1);
+            } else {
+                task.execute();
+            }
+            return;
+        }
+        try {
+            wpq.enqueue(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+        signalWork(1);
+    }
+
+    private class PoolFuture<U> extends CompletableFuture<U> {
+        private final Priority priority;
+        private Task<U> task; //null for dependent stages
+
+        PoolFuture(Priority priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public <V> CompletableFuture<V> newIncompleteFuture() {
+            return new PoolFuture<>(priority);
+        }
+
+        @Override
+        public Executor defaultExecutor() {
+            return dependentExecutors[priority.ordinal()];
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && task != null) {
+                task.cancel(mayInterruptIfRunning);
+            }
+            return cancelled;
+        }
+    }
+
+    /*
+     * delayed and periodic tasks wait in a timer wheel, not in wpq, and are handed to wpq once due.
+     * a periodic task runs until cancelled or until a run throws, its get() only returns then.
+     * runs never overlap, a late run pushes a fixed rate schedule back but keeps its period.
+     */
+    public <T> ScheduledFuture<T> schedule(Callable<T> task, long delay, TimeUnit unit) {
+        return this.schedule(task, delay, unit, Priority.MED);
+    }
+    public <T> ScheduledFuture<T> schedule(Callable<T> task, long delay, TimeUnit unit, Priority priority) {
+        return arm(new Task<>(task, priority.ordinal()), unit.toNanos(delay), 0);
+    }
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit, Priority priority) {
+        return arm(new Task<>(task, null, priority.ordinal()), unit.toNanos(delay), 0);
+    }
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return this.scheduleAtFixedRate(task, initialDelay, period, unit, Priority.MED);
+    }
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit, Priority priority) {
+        if (period <= 0)
+            throw new IllegalArgumentException();
+
+        return arm(new Task<>(task, null, priority.ordinal()), unit.toNanos(initialDelay), unit.toNanos(period));
+    }
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return this.scheduleWithFixedDelay(task, initialDelay, delay, unit, Priority.MED);
+    }
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit, Priority priority) {
+        if (delay <= 0)
+            throw new IllegalArgumentException();
+
+        return arm(new Task<>(task, null, priority.ordinal()), unit.toNanos(initialDelay), -unit.toNanos(delay));
+    }
+
+    private <T> Scheduled<T> arm(Task<T> createTask, long delayNanos, long period) {
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        Scheduled<T> scheduled = new Scheduled<>(createTask, System.nanoTime() + Math.max(delayNanos, 0), period);
+        if (period != 0) {
+            createTask.periodic = scheduled;
+        }
+        scheduled.arm();
+        return scheduled;
+    }
+
+    private TimerWheel timers() {
+        TimerWheel wheel = timers;
+        if (wheel != null)
+            return wheel;
+
+        resizeLock.lock();
+        try {
+            if (isShut)
+                throw new RejectedExecutionException();
+            if (timers == null) {
+                timers = new TimerWheel(TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_WHEEL_SIZE, "pool-timer");
+            }
+            return timers;
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    //the future of a scheduled task, and what the timer wheel runs once it is due
+    private class Scheduled<T> implements ScheduledFuture<T>, Runnable {
+        private final Task<T> task;
+        private final long period; //0 one shot, > 0 fixed rate, < 0 fixed delay
+        private volatile long dueAt;
+        private volatile TimerWheel.Timeout timeout;
+        private volatile boolean cancelled = false;
+
+        Scheduled(Task<T> task, long dueAt, long period) {
+            this.task = task;
+            this.dueAt = dueAt;
+            this.period = period;
+        }
+
+        void arm() {
+            try {
+                timeout = timers().add(this, dueAt);
+            } catch (RejectedExecutionException | IllegalStateException shut) {
+                task.cancel(false);
+                throw new RejectedExecutionException(shut);
+            }
+        }
+
+        //called by the worker that just ran a periodic task, which is NEW again by now
+        void rearm() {
+            if (cancelled) {
+                task.cancel(false);
+                return;
+            }
+            dueAt = (period > 0) ? dueAt + period : System.nanoTime() - period;
+            try {
+                arm();
+            } catch (RejectedExecutionException shut) {
+                //the pool shut down between two runs
+            }
+        }
+
+        //on the ticker thread, it must not block
+        @Override
+        public void run() {
+            if (task.isDone())
+                return;
+            if (isShut) {
+                task.cancel(false);
+                return;
+            }
+            task.rank = UNRANKED;
+            stamp(task, clock());
+            if (wpq.offer(task)) {
+                signalWork(1);
+                return;
+            }
+            //full, try again next tick
+            try {
+                timeout = timers.add(this, System.nanoTime());
+            } catch (IllegalStateException shut) {
+                task.cancel(false);
+            }
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this)
+                return 0;
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            TimerWheel.Timeout armed = timeout;
+            if (armed != null) {
+                armed.cancel();
+            }
+            //a periodic task that is running right now cancels itself once the run is over
+            return task.cancel(mayInterruptIfRunning) || (period != 0 && !task.isDone());
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException {
+            return task.get();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException {
+            return task.get(timeout, unit);
+        }
+    }
+
+    /*
+     * queues the nodes without dependencies now and every other node the moment its last dependency
+     * completes, at the node's Priority. a node whose dependency failed fails with the same exception,
+     * one whose dependency was cancelled is cancelled, neither runs. the returned future completes
+     * once every node is done, exceptionally with the first failure. see TaskGraph.Node.future().
+     */
+    public CompletableFuture<Void> submit(TaskGraph graph) throws InterruptedException {
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        List<TaskGraph.Node<?>> nodes = graph.seal();
+        GraphRun run = new GraphRun(nodes.size());
+        List<Task<?>> tasks = new ArrayList<>(nodes.size());
+        List<Task<?>> ready = new ArrayList<>();
+        for (TaskGraph.Node<?> node : nodes) {
+            Task<?> task = graphTask(node, run);
+            for (TaskGraph.Node<?> dependency : node.dependencies()) {
+                tasks.get(dependency.index()).node.dependents.add(task);
+            }
+            tasks.add(task);
+            if (node.dependencies().isEmpty()) {
+                ready.add(task);
+            }
+        }
+        for (int i = 0; i < ready.size(); ++i) {
+            try {
+                enqueueTask(ready.get(i));
+            } catch (RejectedExecutionException | InterruptedException e) {
+                //whatever was not queued takes its dependents down with it
+                for (Task<?> unqueued : ready.subList(i, ready.size())) {
+                    unqueued.abandon();
+                }
+                throw e;
+            }
+        }
+        return run.done;
+    }
+
+    private <T> Task<T> graphTask(TaskGraph.Node<T> node, GraphRun run) {
+        Task<T> task = new Task<>(node.task(), node.getEffectivePriority().ordinal());
+        task.node = new GraphNode(run, node.dependencies().size());
+        node.future(task);
+        return task;
+    }
+
+    //a graph node is done: count it, then queue, fail or cancel its dependents. a loop, however long the chain
+    private void settleGraph(Task<?> done) {
+        ArrayDeque<Task<?>> settled = new ArrayDeque<>();
+        settled.add(done);
+        Task<?> task;
+        while ((task = settled.poll()) != null) {
+            task.node.run.settled(task);
+            for (Task<?> dependent : task.node.dependents) {
+                if (task.state != NORMAL || isStopped) {
+                    if (dependent.failAfter(task)) {
+                        settled.add(dependent);
+                    }
+                } else if (dependent.node.unmet.decrementAndGet() == 0 && !dependent.isDone()) {
+                    try {
+                        handOff(dependent);
+                    } catch (RejectedExecutionException e) {
+                        dependent.abandon();
+                    }
+                }
+            }
+        }
+    }
+
+    //a Task's place in a submitted TaskGraph
+    private static final class GraphNode {
+        private final GraphRun run;
+        private final AtomicInteger unmet; //dependencies not done yet
+        private final List<Task<?>> dependents = new ArrayList<>(2);
+        private boolean settled = false; //settleGraph has it on its list already
+
+        GraphNode(GraphRun run, int dependencies) {
+            this.run = run;
+            this.unmet = new AtomicInteger(dependencies);
+        }
+    }
+
+    private static final class GraphRun {
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicInteger left;
+
+        GraphRun(int nodes) {
+            left = new AtomicInteger(nodes);
+            if (nodes == 0) {
+                done.complete(null);
+            }
+        }
+
+        void settled(Task<?> task) {
+            if (task.state == EXCEPTIONAL) {
+                done.completeExceptionally((Throwable) task.outcome);
+            } else if (task.state == CANCELLED) {
+                done.completeExceptionally(new CancellationException());
+            }
+            if (left.decrementAndGet() == 0) {
+                done.complete(null);
+            }
+        }
+    }
+
+    /*
+     * waits for a future of this pool like get(), but nothing is swallowed: a failed task throws
+     * CompletionException with its exception as the cause, a cancelled one CancellationException.
+     * called from inside a task it helps instead of blocking the worker: it runs the awaited task
+     * itself if nobody took it yet, otherwise other queued tasks, so tasks that wait on their
+     * subtasks cannot deadlock a small pool.
+     */
+    public <T> T join(Future<T> future) throws InterruptedException {
+        try {
+            return awaitJoin(future, false, 0);
+        } catch (TimeoutException cannot) {
+            throw new IllegalStateException(cannot);
+        }
+    }
+    //TimeoutException if the future is not done by then, unlike get(), which returns null
+    public <T> T join(Future<T> future, long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        return awaitJoin(future, true, unit.toNanos(timeout));
+    }
+
+    private <T> T awaitJoin(Future<T> future, boolean timed, long nanos) throws InterruptedException, TimeoutException {
+        Task<?> awaited = taskOf(future);
+        ThreadAction worker = currentWorker();
+        long deadline = System.nanoTime() + nanos;
+        while (!future.isDone()) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long left = deadline - System.nanoTime();
+            if (timed && left <= 0)
+                throw new TimeoutException();
+            if (worker != null) {
+                if (worker.help(awaited))
+                    continue;
+                //it runs elsewhere and there is nothing else to do, new work does not wake us
+                awaitQuietly(future, true, timed ? Math.min(left, HELP_PARK_NANOS) : HELP_PARK_NANOS);
+            } else {
+                awaitQuietly(future, timed, left);
+            }
+        }
+        return joined(future);
+    }
+
+    //returns once the future is done or the wait is over, whichever way it ended
+    private static void awaitQuietly(Future<?> future, boolean timed, long nanos) throws InterruptedException {
+        try {
+            if (future instanceof Task) {
+                ((Task<?>) future).awaitDone(timed, nanos);
+            } else if (timed) {
+                future.get(nanos, TimeUnit.NANOSECONDS);
+            } else {
+                future.get();
+            }
+        } catch (ExecutionException | CancellationException | TimeoutException ignore) {
+            //joined reports it
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T joined(Future<T> future) throws InterruptedException {
+        if (future instanceof Task) {
+            Task<?> task = (Task<?>) future;
+            switch (task.state) {
+                case NORMAL:
+                    return (T) task.outcome;
+                case EXCEPTIONAL:
+                    throw new CompletionException((Throwable) task.outcome);
+                default:
+                    throw new CancellationException();
+            }
+        }
+        if (future.isCancelled())
+            throw new CancellationException();
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    //the Task behind a future of this pool, null for anything else
+    private Task<?> taskOf(Future<?> future) {
+        Task<?> task = null;
+        if (future instanceof Task) {
+            task = (Task<?>) future;
+        } else if (future instanceof Scheduled) {
+            task = ((Scheduled<?>) future).task;
+        } else if (future instanceof PoolFuture) {
+            task = ((PoolFuture<?>) future).task;
+        }
+        return (task != null && task.owner() == this) ? task : null;
+    }
+
+    /*
+     * with the BLOCK policy and no spill tier, one enqueueAll for the whole collection: the queue lock
+     * and permits are taken once per capacity-sized chunk instead of once per task. otherwise each task
+     * is admitted like a submit, so the SaturationPolicy and the spill tier apply to every one of them.
+     * if one is rejected (or shutdown gets in the way) the ones queued before it are cancelled.
+     */
+    public <T> List<Future<T>> submitAll(Collection<? extends Callable<T>> tasks, Priority priority) throws InterruptedException {
+        return this.submitAll(tasks, priority, null);
+    }
+
+    //doneTo, if not null, gets every task once it is done, however it ends
+    private <T> List<Future<T>> submitAll(Collection<? extends Callable<T>> tasks, Priority priority,
+                                          BlockingQueue<Task<?>> doneTo) throws InterruptedException {
+        if(isShut)
+           throw new RejectedExecutionException();
+
+        List<Task<?>> created = new ArrayList<>(tasks.size());
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            Task<T> createTask = new Task<>(task, priority.ordinal());
+            createTask.doneTo = doneTo;
+            created.add(createTask);
+            futures.add(createTask);
+        }
+        if (saturation != SaturationPolicy.BLOCK || spill != null) {
+            admitAll(created);
+            return futures;
+        }
+        long now = clock();
+        for (Task<?> createTask : created) {
+            stamp(createTask, now);
+        }
+        if (!pushLocal(created)) {
+            awaitDeferralRoom(-1);
+            wpq.enqueueAll(created);
+            //raced with shutdown, the workers may be gone already
+            if (isShut && unqueue(created))
+                throw new RejectedExecutionException();
+            signalWork(created.size());
+        }
+        return futures;
+    }
+
+    private void admitAll(List<Task<?>> created) throws InterruptedException {
+        int admitted = 0;
+        try {
+            for (Task<?> createTask : created) {
+                admit(createTask, -1);
+                ++admitted;
+            }
+        } catch (RejectedExecutionException | InterruptedException e) {
+            for (Task<?> queued : created.subList(0, admitted)) {
+                queued.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    //cancels whatever of tasks is still in wpq, true if there was any
+    private boolean unqueue(List<Task<?>> tasks) throws InterruptedException {
+        boolean found = false;
+        for (Task<?> task : tasks) {
+            if (wpq.remove(task)) {
+                task.cancel(false);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+        return this.invokeAll(tasks, Priority.MED);
+    }
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, Priority priority) throws InterruptedException {
+        List<Future<T>> futures = submitAll(tasks, priority);
+        for (Future<T> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException | CancellationException ignore) {
+                //the future reports it, invokeAll only waits
+            }
+        }
+        return futures;
+    }
+
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+        return this.invokeAny(tasks, Priority.MED);
+    }
+    /*
+     * the first task to finish without throwing wins, the ones still queued are cancelled.
+     * every task reports however it ends, so one that throws an Error or is cancelled before
+     * it runs counts as a failure instead of leaving us waiting for it.
+     */
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, Priority priority) throws InterruptedException, ExecutionException {
+        if (tasks.isEmpty())
+            throw new IllegalArgumentException();
+
+        BlockingQueue<Task<?>> done = new LinkedBlockingQueue<>();
+        List<Future<T>> futures = submitAll(tasks, priority, done);
+        try {
+            Throwable last = null;
+            for (int i = 0; i < futures.size(); ++i) {
+                Task<?> finished = done.take();
+                if (finished.state == NORMAL) {
+                    @SuppressWarnings("unchecked")
+                    T result = (T) finished.outcome;
+                    return result;
+                }
+                last = (finished.state == EXCEPTIONAL) ? (Throwable) finished.outcome : new CancellationException();
+            }
+            throw new ExecutionException(last);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /*
+     * how many tasks a worker takes from wpq per wakeup (shared queue mode).
+     * bigger batches amortize the queue lock and the wakeups, but a task already
+     * in some worker's batch can no longer be cancelled or overtaken by a higher priority.
+     */
+    public void setWorkerBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException();
+
+        workerBatchSize = batchSize;
+    }
+
+    /*
+     * limits how fast and how many tasks of priority start, null lifts it. checked right before a task
+     * would run: one over the limit is set aside without holding its worker and queued again once it
+     * may start, so the other Priorities never wait behind it. it still counts against the queue capacity
+     * while set aside, so a full queue goes to the SaturationPolicy as usual. shutdown lifts every limit.
+     */
+    public void setRateLimit(Priority priority, RateLimit limit) {
+        Throttle replaced;
+        resizeLock.lock();
+        try {
+            if (isShut)
+                throw new RejectedExecutionException();
+            Throttle[] limits = (throttles == null) ? new Throttle[Priority.values().length] : throttles.clone();
+            replaced = limits[priority.ordinal()];
+            limits[priority.ordinal()] = (limit == null) ? null : new Throttle(limit, System.nanoTime());
+            throttles = limits;
+        } finally {
+            resizeLock.unlock();
+        }
+        if (replaced != null) {
+            replaced.retire();
+            releaseDeferred(replaced);
+        }
+    }
+
+    public RateLimit getRateLimit(Priority priority) {
+        Throttle[] limits = throttles;
+        Throttle current = (limits == null) ? null : limits[priority.ordinal()];
+        return (current == null) ? null : current.limit();
+    }
+
+    /*
+     * a task set aside by a RateLimit, or waiting in a worker's local deque, keeps its place in wpq's
+     * capacity, so the SaturationPolicy still applies to what comes in behind it.
+     */
+    private boolean deferralFull() {
+        int held = deferredCount() + localQueued.get();
+        return held > 0 && held >= wpq.remainingCapacity();
+    }
+
+    private int deferredCount() {
+        Throttle[] limits = throttles;
+        if (limits == null)
+            return 0;
+        int deferred = 0;
+        for (Throttle limit : limits) {
+            if (limit != null) {
+                deferred += limit.deferredCount();
+            }
+        }
+        return deferred;
+    }
+
+    //timeoutNanos < 0 waits for as long as it takes, false if the timeout ran out first
+    private boolean awaitDeferralRoom(long timeoutNanos) throws InterruptedException {
+        if (!deferralFull())
+            return true;
+
+        //counted before the check under roomLock, so a signalRoom after it cannot miss us
+        roomWaiters.incrementAndGet();
+        roomLock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (deferralFull()) {
+                if (timeoutNanos < 0) {
+                    roomFreed.await();
+                } else if (remaining <= 0) {
+                    return false;
+                } else {
+                    remaining = roomFreed.awaitNanos(remaining);
+                }
+            }
+            return true;
+        } finally {
+            roomLock.unlock();
+            roomWaiters.decrementAndGet();
+        }
+    }
+
+    //nothing to do while nobody waits, the common case
+    private void signalRoom() {
+        if (roomWaiters.get() == 0)
+            return;
+
+        roomLock.lock();
+        try {
+            roomFreed.signalAll();
+        } finally {
+            roomLock.unlock();
+        }
+    }
+
+    //false if task was set aside, it is queued again by releaseDeferred
+    private boolean mayStart(Task<?> task, Throttle limit) {
+        long now = System.nanoTime();
+        if (limit.tryStart(now) == 0)
+            return true;
+
+        limit.defer(task);
+        //a task that finished or a token that came up meanwhile may have missed it
+        releaseDeferred(limit);
+        return false;
+    }
+
+    private void finishedUnder(Throttle limit) {
+        limit.finished();
+        if (limit.hasDeferred()) {
+            releaseDeferred(limit);
+        }
+    }
+
+    //queues as many deferred tasks as may start now, and arms a timer for the rest if the rate holds them
+    private void releaseDeferred(Throttle limit) {
+        long now = System.nanoTime();
+        int room = limit.startable(now);
+        boolean full = false;
+        boolean released = false;
+        Object next;
+        while (room > 0 && (next = limit.pollDeferred()) != null) {
+            released = true;
+            Task<?> task = (Task<?>) next;
+            if (task.isDone())
+                continue;
+            --room;
+            if (limit.isRetired()) {
+                //shutting down or replaced, the timer may be gone: queue or run it like a lane's next task
+                handOff(task);
+                continue;
+            }
+            stamp(task, clock());
+            if (!wpq.offer(task)) {
+                limit.deferFirst(task);
+                full = true;
+                break;
+            }
+            signalWork(1);
+        }
+        if (released) {
+            signalRoom();
+        }
+        if (!limit.hasDeferred() || limit.isRetired())
+            return;
+        long wait = limit.nanosUntilToken(now);
+        if ((wait > 0 || full) && limit.armed.compareAndSet(false, true)) {
+            try {
+                timers().add(() -> {
+                    limit.armed.set(false);
+                    releaseDeferred(limit);
+                }, now + Math.max(wait, TimeUnit.MILLISECONDS.toNanos(TIMER_TICK_MILLIS)));
+            } catch (RejectedExecutionException | IllegalStateException shut) {
+                limit.armed.set(false); //shutdown releases them
+            }
+        }
+    }
+
+    //shutdown: what waits for a limit is queued, from now on nothing is held back
+    private void liftRateLimits() {
+        Throttle[] limits;
+        resizeLock.lock();
+        try {
+            limits = throttles;
+            throttles = null;
+        } finally {
+            resizeLock.unlock();
+        }
+        if (limits == null)
+            return;
+        for (Throttle limit : limits) {
+            if (limit != null) {
+                limit.retire();
+                releaseDeferred(limit);
+            }
+        }
+    }
+
+    /*
+     * how idle workers wait for work (shared queue mode), IdleStrategy.PARK by default.
+     * spinning trades idle CPU for submit-to-start latency, worth it when a few microseconds matter.
+     */
+    public void setIdleStrategy(IdleStrategy strategy) {
+        if (strategy == null)
+            throw new IllegalArgumentException();
+
+        idleStrategy = strategy;
+        //idle workers are waiting the old way, let them start over with the new one
+        interruptIdleWorkers();
+    }
+
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    /*
+     * after tasks went into wpq. a spinning worker polls wpq again before it parks, so while
+     * there is one nobody needs waking, otherwise up to count parked workers are unparked.
+     * the queued task is visible before spinningWorkers is read, and a worker is in parkedWorkers
+     * before it stops counting as spinning, so a worker cannot park past a task nobody woke it for.
+     */
+    private void signalWork(int count) {
+        for (int i = 0; i < count && spinningWorkers.get() == 0; ++i) {
+            ThreadAction parked = parkedWorkers.pollFirst();
+            if (parked == null)
+                return;
+            LockSupport.unpark(parked);
+        }
+    }
+
+    //both metrics and the scaler's wait threshold need to know when a task was queued
+    private boolean timesQueue() {
+        return metrics != null || scaling != null;
+    }
+
+    private long clock() {
+        return (timesQueue() || scheduling != SchedulingPolicy.STRICT) ? System.nanoTime() : 0;
+    }
+
+    //everything the queue orders by besides the priority has to be set before the task goes in
+    private void stamp(Task<?> task, long now) {
+        TaskEvents.Enqueued traced = new TaskEvents.Enqueued();
+        if (traced.isEnabled()) {
+            //TaskDequeued and TaskExecution count their wait from here
+            if (now == 0) {
+                now = System.nanoTime();
+            }
+            traced.priority = TaskEvents.priority(task.realPriority);
+            traced.queueDepth = wpq.size();
+            traced.commit();
+        }
+        task.enqueuedAt = now;
+        if (scheduling == SchedulingPolicy.AGING) {
+            task.rank = now - task.realPriority * agingNanos;
+        } else if (scheduling == SchedulingPolicy.DEADLINE && task.rank == UNRANKED) {
+            task.rank = now + defaultDeadlines[task.realPriority];
+        } else if (scheduling == SchedulingPolicy.STRICT && task.group != null && task.fairTag == 0) {
+            //charged once, a task queued again (held back by a RateLimit, say) keeps its turn
+            task.fairTag = task.group.nextTag(task.realPriority, virtualTime.get(task.realPriority));
+        }
+    }
+
+    //a worker took task to run it, JFR only
+    private void traceDequeued(Task<?> task) {
+        TaskEvents.Dequeued traced = new TaskEvents.Dequeued();
+        if (!traced.isEnabled())
+            return;
+
+        traced.priority = TaskEvents.priority(task.realPriority);
+        traced.queueDepth = wpq.size();
+        traced.waitTime = (task.enqueuedAt == 0) ? 0 : System.nanoTime() - task.enqueuedAt;
+        traced.worker = Thread.currentThread().getName();
+        traced.commit();
+    }
+
+    private void traceRejected(Task<?> task, String reason) {
+        TaskEvents.Rejected traced = new TaskEvents.Rejected();
+        if (!traced.isEnabled())
+            return;
+
+        traced.priority = TaskEvents.priority(task.realPriority);
+        traced.queueDepth = wpq.size();
+        traced.reason = reason;
+        traced.commit();
+    }
+
+    //AGING: a task that waited interval longer than another ranks one Priority above it
+    public void setAgingInterval(Duration interval) {
+        if (interval.isNegative() || interval.isZero())
+            throw new IllegalArgumentException();
+
+        agingNanos = interval.toNanos();
+    }
+
+    //DEADLINE: the deadline, relative to submission, of tasks submitted without one
+    public void setDefaultDeadline(Priority priority, Duration deadline) {
+        if (deadline.isNegative())
+            throw new IllegalArgumentException();
+
+        defaultDeadlines[priority.ordinal()] = deadline.toNanos();
+    }
+
+    public SchedulingPolicy getSchedulingPolicy() {
+        return scheduling;
+    }
+
+    public void setMetricsEnabled(boolean enabled) {
+        if (enabled != (metrics != null)) {
+            metrics = enabled ? new PoolMetrics() : null;
+        }
+    }
+
+    public boolean isMetricsEnabled() {
+        return metrics != null;
+    }
+
+    public PoolMetrics.Snapshot metricsSnapshot() {
+        PoolMetrics current = metrics;
+        if (current == null)
+            throw new IllegalStateException("metrics are off");
+
+        return current.snapshot(wpq.size(), numOfThreadz);
+    }
+
+    //exports the metrics as an MXBean under objectName, e.g. "il.co.ilrd:type=ThreadPool,name=io"
+    public ObjectName registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(new PoolMXBean(), ThreadPoolMXBean.class, true), name);
+        return name;
+    }
+
+    private class PoolMXBean implements ThreadPoolMXBean {
+        @Override
+        public boolean isMetricsEnabled() {
+            return ThreadPool.this.isMetricsEnabled();
+        }
+
+        @Override
+        public void setMetricsEnabled(boolean enabled) {
+            ThreadPool.this.setMetricsEnabled(enabled);
+        }
+
+        @Override
+        public long getCompletedTasks() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getCompleted();
+        }
+
+        @Override
+        public long getFailedTasks() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getFailed();
+        }
+
+        @Override
+        public long getCancelledTasks() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getCancelled();
+        }
+
+        @Override
+        public long getRejectedTasks() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getRejected();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return wpq.size();
+        }
+
+        @Override
+        public int getBusyWorkers() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getBusyWorkers();
+        }
+
+        @Override
+        public int getIdleWorkers() {
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            return (snapshot == null) ? 0 : snapshot.getIdleWorkers();
+        }
+
+        @Override
+        public Map<String, Long> getQueueWaitP99Micros() {
+            return p99Micros(true);
+        }
+
+        @Override
+        public Map<String, Long> getExecutionP99Micros() {
+            return p99Micros(false);
+        }
+
+        private Map<String, Long> p99Micros(boolean queueWait) {
+            Map<String, Long> p99 = new LinkedHashMap<>();
+            PoolMetrics.Snapshot snapshot = snapshotOrNull();
+            if (snapshot != null) {
+                for (Priority priority : Priority.values()) {
+                    LatencyHistogram.Snapshot histogram = queueWait
+                            ? snapshot.getQueueWait(priority) : snapshot.getExecution(priority);
+                    p99.put(priority.name(), TimeUnit.NANOSECONDS.toMicros(histogram.percentileNanos(99.0)));
+                }
+            }
+            return p99;
+        }
+
+        private PoolMetrics.Snapshot snapshotOrNull() {
+            PoolMetrics current = metrics;
+            return (current == null) ? null : current.snapshot(wpq.size(), numOfThreadz);
+        }
+    }
+
+    /*
+     * work stealing: a task submitted from one of our workers goes to that worker's deque.
+     * the deques and wpq share the capacity of wpq (the spill high water mark once enableSpill),
+     * past it the task takes the way of any other, the SaturationPolicy or the spill file.
+     */
+    private boolean pushLocal(Task<?> task) {
+        ThreadAction current = localWorker();
+        if (current == null || !reserveLocal(1))
+            return false;
+
+        current.localDeques[task.realPriority].addLast(task);
+        //an idle peer could steal it now instead of on its next rescan
+        signalWork(1);
+        return true;
+    }
+
+    private boolean pushLocal(Collection<Task<?>> tasks) {
+        ThreadAction current = localWorker();
+        if (current == null || !reserveLocal(tasks.size()))
+            return false;
+
+        for (Task<?> task : tasks) {
+            current.localDeques[task.realPriority].addLast(task);
+        }
+        signalWork(tasks.size());
+        return true;
+    }
+
+    private boolean reserveLocal(int count) {
+        SpillFile tier = spill;
+        if (tier != null && tier.size() > 0)
+            return false;
+
+        long limit = (tier == null) ? wpq.capacity() : spillHighWater;
+        if ((long) localQueued.addAndGet(count) + deferredCount() + wpq.size() <= limit)
+            return true;
+
+        localQueued.addAndGet(-count);
+        return false;
+    }
+
+    //local deques are FIFO per priority, under AGING or DEADLINE everything goes through wpq
+    private ThreadAction localWorker() {
+        return (workStealing && scheduling == SchedulingPolicy.STRICT) ? currentWorker() : null;
+    }
+
+    /*
+     * a worker, or in virtual mode a virtual thread running one of our tasks. the workers only
+     * leave once what such a thread queues is taken, so it always has somebody to run it.
+     */
+    private boolean onPoolThread() {
+        return currentWorker() != null || (virtualRunning != null && virtualRunning.contains(Thread.currentThread()));
+    }
+
+    //a task queued now might never be taken: stopped, or shut down and the workers may be gone
+    private boolean nobodyLeftToRun() {
+        return isStopped || (isShut && !onPoolThread());
+    }
+
+    //the ThreadAction of this pool we are running on, if any
+    private ThreadAction currentWorker() {
+        if (!(Thread.currentThread() instanceof ThreadAction))
+            return null;
+
+        ThreadAction current = (ThreadAction) Thread.currentThread();
+        return (current.owner() == this) ? current : null;
+    }
+
+    private boolean removeLocal(Task<?> task) {
+        if (!workStealing || task.realPriority < 0 || task.realPriority >= Priority.values().length)
+            return false;
+
+        for (ThreadAction worker : threadsList) {
+            if (worker.localDeques[task.realPriority].remove(task)) {
+                localQueued.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void execute(Runnable run) {
+        this.execute(run, Priority.MED);
+    }
+
+    //fire and forget, the queued Task is the only allocation
+    public void execute(Runnable run, Priority priority) {
+        try {
+            enqueueTask(new Task<Void>(run, null, priority.ordinal()));
+        } catch (InterruptedException e) {
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    public void setNumberOfThreads(int updateNumberOfThreads) {
+        if(updateNumberOfThreads < 0)
+            throw new IllegalArgumentException();
+
+        resizeLock.lock();
+        try {
+            if (scaling != null)
+                throw new IllegalStateException("the scaling policy owns the number of threads");
+
+            int remainder = updateNumberOfThreads - numOfThreadz;
+            if (virtualFactory != null) {
+                if (remainder >= 0) {
+                    virtualPermits.release(remainder);
+                } else {
+                    virtualPermits.shrink(-remainder);
+                }
+            } else {
+                //workers still on their way out after a shrink are reused, not replaced
+                while (liveWorkers < updateNumberOfThreads) {
+                    startWorker();
+                }
+            }
+            numOfThreadz = updateNumberOfThreads;
+        } finally {
+            resizeLock.unlock();
+        }
+        //the extra workers leave at their next gate check, the idle ones right away
+        interruptIdleWorkers();
+    }
+
+    /*
+     * hands the number of threads over to policy (null hands it back).
+     * a scaler thread checks the queue every SCALE_CHECK_MILLIS and adds workers,
+     * idle workers retire on their own once they outlive the keep alive.
+     * platform workers only, virtual mode has no threads to size.
+     */
+    public void setScalingPolicy(ScalingPolicy policy) {
+        if (virtualFactory != null)
+            throw new IllegalStateException("nothing to scale in virtual mode");
+
+        resizeLock.lock();
+        try {
+            if (isShut)
+                throw new RejectedExecutionException();
+
+            scaling = policy;
+            if (scaler != null) {
+                scaler.interrupt();
+                scaler = null;
+            }
+            if (policy == null)
+                return;
+
+            while (numOfThreadz < policy.getMinThreads()) {
+                startWorker();
+                ++numOfThreadz;
+            }
+            scaler = new Scaler(policy);
+            scaler.start();
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    public ScalingPolicy getScalingPolicy() {
+        return scaling;
+    }
+
+    //live platform workers (the concurrency cap in virtual mode)
+    public int getNumberOfThreads() {
+        return numOfThreadz;
+    }
+
+    //caller holds resizeLock
+    private void startWorker() {
+        ThreadAction added = new ThreadAction();
+        threadsList.add(added);
+        ++liveWorkers;
+        runningWorkers.incrementAndGet();
+        added.start();
+    }
+
+    //called by a worker whose keep alive ran out, true if it may exit
+    private boolean retire(ThreadAction worker) {
+        resizeLock.lock();
+        try {
+            ScalingPolicy policy = scaling;
+            if (isShut || isPaused || policy == null || numOfThreadz <= policy.getMinThreads())
+                return false;
+
+            --numOfThreadz;
+            --liveWorkers;
+            threadsList.remove(worker);
+            return true;
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    private class Scaler extends Thread {
+        private final ScalingPolicy policy;
+
+        Scaler(ScalingPolicy policy) {
+            this.policy = policy;
+            setDaemon(true);
+            setName("pool-scaler");
+        }
+
+        @Override
+        public void run() {
+            while (scaling == policy && !isShut) {
+                try {
+                    Thread.sleep(SCALE_CHECK_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int wanted = wantedWorkers();
+                if (wanted > 0) {
+                    grow(wanted);
+                }
+            }
+        }
+
+        //one worker per task over the depth threshold, at least one if the oldest task waited too long
+        private int wantedWorkers() {
+            if (isPaused)
+                return 0;
+
+            int wanted = wpq.size() - policy.getQueueDepthThreshold();
+            Task<?> head = wpq.peek();
+            if (wanted <= 0 && head != null && head.enqueuedAt != 0
+                    && System.nanoTime() - head.enqueuedAt > policy.getQueueWaitThreshold().toNanos()) {
+                wanted = 1;
+            }
+            return wanted;
+        }
+
+        private void grow(int wanted) {
+            resizeLock.lock();
+            try {
+                if (isShut || scaling != policy)
+                    return;
+
+                while (wanted-- > 0 && numOfThreadz < policy.getMaxThreads()) {
+                    startWorker();
+                    ++numOfThreadz;
+                }
+            } finally {
+                resizeLock.unlock();
+            }
+        }
+    }
+
+    //running tasks finish, then every worker waits in passGate until resume
+    public void pause() throws InterruptedException {
+        isPaused = true;
+        interruptIdleWorkers();
+    }
+    public void resume() {
+        resizeLock.lock();
+        try {
+            isPaused = false;
+            resumed.signalAll();
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    private volatile boolean isShut = false;
+    private volatile boolean isStopped = false; //shutdownNow
+    //the queue is still run, workers leave once it is empty
+    public void shutdown() throws InterruptedException {
+        TimerWheel wheel;
+        resizeLock.lock();
+        try {
+            //no worker retires and none is added from here on
+            isShut = true;
+            wheel = timers;
+        } finally {
+            resizeLock.unlock();
+        }
+        cancelTimers(wheel);
+        liftRateLimits();
+        interruptIdleWorkers();
+    }
+
+    /*
+     * does not wait for the queue: every worker (and in virtual mode every virtual thread running a task)
+     * is interrupted and leaves after the task it is on,
+     * a pause is lifted, and whatever never started is drained from wpq (and the work stealing deques)
+     * in one pass and returned. tasks already taken into a worker's batch are cancelled instead.
+     */
+    public List<Runnable> shutdownNow() throws InterruptedException {
+        TimerWheel wheel;
+        resizeLock.lock();
+        try {
+            isShut = true;
+            isStopped = true;
+            wheel = timers;
+            resumed.signalAll();
+        } finally {
+            resizeLock.unlock();
+        }
+        cancelTimers(wheel);
+        for (ThreadAction worker : threadsList) {
+            if (worker != Thread.currentThread()) {
+                worker.interrupt();
+            }
+        }
+        if (virtualRunning != null) {
+            for (Thread running : virtualRunning) {
+                if (running != Thread.currentThread()) {
+                    running.interrupt();
+                }
+            }
+        }
+        List<Task<?>> drained = new ArrayList<>(wpq.size());
+        wpq.drainTo(drained, Integer.MAX_VALUE);
+        for (ThreadAction worker : threadsList) {
+            worker.drainLocal(drained);
+        }
+        drainSpill(drained);
+        drainDeferred(drained);
+        List<Runnable> unstarted = new ArrayList<>(drained.size());
+        for (Task<?> task : drained) {
+            if (!task.isDone()) {
+                unstarted.add(task);
+            }
+        }
+        return unstarted;
+    }
+
+    //shutdownNow, what waits for a RateLimit is returned with the rest
+    private void drainDeferred(Collection<Task<?>> drained) {
+        Throttle[] limits;
+        resizeLock.lock();
+        try {
+            limits = throttles;
+            throttles = null;
+        } finally {
+            resizeLock.unlock();
+        }
+        if (limits == null)
+            return;
+        for (Throttle limit : limits) {
+            if (limit == null)
+                continue;
+            limit.retire();
+            Object next;
+            while ((next = limit.pollDeferred()) != null) {
+                drained.add((Task<?>) next);
+            }
+        }
+    }
+
+    //shutdown, the last worker out: the spill files go unless tasks are left in them, those a restart replays
+    private void closeSpill() {
+        SpillFile tier = spill;
+        if (tier == null)
+            return;
+
+        spillLock.lock();
+        try {
+            tier.closeIfEmpty();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    //tests only: as if the process died, the spill files are left exactly as they are
+    void abandonSpill() {
+        spillLock.lock();
+        try {
+            spill = null;
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    //shutdownNow, what is still spilled is returned with the rest and the files go
+    private void drainSpill(Collection<Task<?>> drained) {
+        SpillFile tier = spill;
+        if (tier == null)
+            return;
+
+        spillLock.lock();
+        try {
+            for (SpillFile.Entry entry : tier.drain()) {
+                Task<?> task = unspill(entry, entry.drainedPayload());
+                if (task != null) {
+                    drained.add(task);
+                }
+            }
+            tier.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    public boolean isShutdown() {
+        return isShut;
+    }
+
+    //delayed tasks that are not due yet never will be, the other timers are dropped
+    private void cancelTimers(TimerWheel wheel) throws InterruptedException {
+        if (wheel == null)
+            return;
+
+        for (Runnable scheduled : wheel.stop()) {
+            if (scheduled instanceof Scheduled) {
+                ((Scheduled<?>) scheduled).cancel(false);
+            }
+        }
+    }
+
+    /*
+     * wakes the workers blocked on wpq so they see a pause, a smaller numOfThreadz or a shutdown now.
+     * one that holds its runLock is running a task and checks the gate right after it.
+     */
+    private void interruptIdleWorkers() {
+        for (ThreadAction worker : threadsList) {
+            //runLock is reentrant, a worker calling us from its own task would look idle
+            if (worker != Thread.currentThread() && worker.runLock.tryLock()) {
+                try {
+                    worker.interrupt();
+                } finally {
+                    worker.runLock.unlock();
+                }
+            }
+        }
+    }
+
+    /*
+     * checked by every worker before it takes a task. false once it has to leave:
+     * after shutdownNow, after shutdown with nothing left for it, or when it is one worker too many.
+     */
+    private boolean passGate(ThreadAction worker) {
+        while (true) {
+            if (isStopped)
+                return false;
+            if (isPaused) {
+                awaitResume();
+                continue;
+            }
+            if (isShut)
+                return !worker.hasNothingLeft();
+            if (liveWorkers > numOfThreadz && virtualFactory == null && worker.hasNothingLocal())
+                return !leave(worker);
+            return true;
+        }
+    }
+
+    private void awaitResume() {
+        resizeLock.lock();
+        try {
+            while (isPaused && !isStopped) {
+                resumed.await();
+            }
+        } catch (InterruptedException wakeUp) {
+            //passGate looks again
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+
+    //true if worker may exit to bring liveWorkers down to numOfThreadz
+    private boolean leave(ThreadAction worker) {
+        resizeLock.lock();
+        try {
+            if (liveWorkers <= numOfThreadz)
+                return false;
+
+            --liveWorkers;
+            threadsList.remove(worker);
+            return true;
+        } finally {
+            resizeLock.unlock();
+        }
+    }
+    public void awaitTermination() throws InterruptedException {
+        this.awaitTermination(Long.MAX_VALUE,TimeUnit.DAYS);
+    }
+    
+    public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        for (ThreadAction t : threadsList) {
+            t.join(TimeUnit.MILLISECONDS.convert(timeout, unit)/numOfWorkers());
+        }
+        threadsList.clear();
+    }
+
+    //platform threads pulling from wpq, the single dispatcher in virtual mode
+    private int numOfWorkers() {
+        return (virtualFactory != null) ? 1 : numOfThreadz;
+    }
+
+    //Thread.ofVirtual() is looked up reflectively so the pool still builds and runs on older JDKs
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "pool-virtual-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("virtual threads need JDK 21+", e);
+        }
+    }
+
+    private static class VirtualPermits extends Semaphore {
+        VirtualPermits(int permits) {
+            super(permits);
+        }
+
+        void shrink(int by) {
+            reducePermits(by);
+        }
+    }
+
+    /*
+     * the queue entry and its Future in one object: a primitive priority, one CAS'd state word
+     * instead of locks and flags, and waiters that are only allocated by a get() that has to block.
+     */
+    private class Task<T> implements RunnableFuture<T>, Comparable<Task<?>>, IndexedHeap.Slot {
+        private int realPriority; //only raised by promote, under wpq's lock or while in no queue
+        private Object gullible; //Callable or Runnable, dropped once the task is done
+        private final boolean isCallable;
+        private Object outcome;  //result, runnable return value or the exception thrown
+        private PoolFuture<T> completion; //submitAsync only
+        private BlockingQueue<Task<?>> doneTo; //invokeAny only
+        private Scheduled<T> periodic; //scheduleAtFixedRate and scheduleWithFixedDelay only
+        private Object key; //submit(key, ...) only
+        private Object dedupKey; //submitDedup only
+        private GraphNode node; //submit(TaskGraph) only
+        private TaskGroup group; //submit(TaskGroup, ...) only
+        private long fairTag; //STRICT order within a Priority, the virtual time its group's turn comes, 0 without a group
+        private long executionTimeout; //nanos, 0 for none
+        private volatile Thread runner; //while RUNNING
+        private volatile long startedAt; //System.nanoTime(), only set while metrics or stuck detection need it
+        private long reportedRun; //startedAt of the run StuckCheck reported last, its thread only
+        private long enqueuedAt; //System.nanoTime(), only set while metrics, scaling or a SchedulingPolicy need it
+        private long rank = UNRANKED; //AGING or DEADLINE order, lower runs first
+        private int heapIndex = -1; //where it sits in a LOCKED_HEAP wpq, written under its lock
+        volatile int state = NEW;
+        volatile WaitNode waiters;
+
+        public Task(Callable<T> gullible, int realPriority){
+            this.realPriority = realPriority;
+            this.gullible = gullible;
+            this.isCallable = true;
+        }
+
+        public Task(Runnable gullible, T returnValue, int realPriority){
+            this.realPriority = realPriority;
+            this.gullible = gullible;
+            this.isCallable = false;
+            this.outcome = returnValue;
+        }
+
+        //DROP_LOWEST evicted it from wpq to make room
+        void drop() {
+            if (!STATE.compareAndSet(this, NEW, CANCELLED))
+                return;
+
+            PoolMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.taskRejected();
+            }
+            traceRejected(this, "dropped for a higher priority");
+            finishCompletion();
+        }
+
+        ThreadPool owner() {
+            return ThreadPool.this;
+        }
+
+        //INTERRUPTING keeps execute from finishing, so the interrupt cannot reach whatever the runner does next
+        private boolean interruptRunning() {
+            if (!STATE.compareAndSet(this, RUNNING, INTERRUPTING))
+                return false;
+
+            try {
+                Thread running = runner;
+                if (running != null) {
+                    running.interrupt();
+                }
+            } finally {
+                state = CANCELLED;
+            }
+            PoolMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.taskCancelled();
+            }
+            traceCancelled(true);
+            //the lane or graph moves on when execute returns, not before
+            releaseWaiters();
+            return true;
+        }
+
+        //never ran and never will, without counting as cancelled
+        void abandon() {
+            if (STATE.compareAndSet(this, NEW, CANCELLED)) {
+                finishCompletion();
+            }
+        }
+
+        //cancelled without afterDone, whoever orphans it passes its group slot on
+        boolean orphan() {
+            if (!STATE.compareAndSet(this, NEW, CANCELLED))
+                return false;
+
+            PoolMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.taskCancelled();
+            }
+            traceCancelled(false);
+            releaseWaiters();
+            gullible = null;
+            return true;
+        }
+
+        private void traceCancelled(boolean wasRunning) {
+            TaskEvents.Cancelled traced = new TaskEvents.Cancelled();
+            if (traced.isEnabled()) {
+                traced.priority = TaskEvents.priority(realPriority);
+                traced.running = wasRunning;
+                traced.commit();
+            }
+        }
+
+        //it never ran and never will, e.g. it could not be read back from the spill file
+        void fail(Throwable cause) {
+            //nothing runs it, the outcome only counts if the CAS wins
+            outcome = cause;
+            if (STATE.compareAndSet(this, NEW, EXCEPTIONAL)) {
+                finishCompletion();
+            }
+        }
+
+        //a dependency of this graph node failed or was cancelled, so it never runs
+        boolean failAfter(Task<?> dependency) {
+            if (dependency.state == EXCEPTIONAL) {
+                //not queued yet, nothing else writes the outcome
+                outcome = dependency.outcome;
+                if (!STATE.compareAndSet(this, NEW, EXCEPTIONAL))
+                    return false;
+            } else if (!STATE.compareAndSet(this, NEW, CANCELLED)) {
+                return false;
+            }
+            node.settled = true;
+            finishCompletion();
+            return true;
+        }
+
+        //what the Runnables returned by shutdownNow do
+        @Override
+        public void run() {
+            execute();
+        }
+
+        @SuppressWarnings("unchecked")
+        void execute() {
+            //out of wpq or a deque, its place there is free
+            signalRoom();
+            Throttle limit = null;
+            Throttle[] limits = throttles;
+            if (limits != null && state == NEW && (limit = limits[realPriority]) != null && !mayStart(this, limit))
+                return; //set aside without holding the worker
+            //before the CAS, so a cancel(true) that sees RUNNING sees who to interrupt
+            runner = Thread.currentThread();
+            if (!STATE.compareAndSet(this, NEW, RUNNING)) {
+                runner = null;
+                if (limit != null) {
+                    finishedUnder(limit);
+                }
+                return; //cancelled while it sat in a batch or a deque
+            }
+
+            PoolMetrics recorder = metrics;
+            long started = 0;
+            if (recorder != null || stuckCheck != null) {
+                started = System.nanoTime();
+                startedAt = started;
+            }
+            if (recorder != null) {
+                recorder.taskStarted(realPriority, (enqueuedAt == 0) ? -1 : started - enqueuedAt);
+            }
+            if (group != null) {
+                //groups queued from now on start their turns here, not behind the backlog of a busy one
+                virtualTime.accumulateAndGet(realPriority, fairTag, Math::max);
+            }
+            TimerWheel.Timeout overrun = armOverrun();
+            TaskEvents.Execution traced = new TaskEvents.Execution();
+            if (traced.isEnabled()) {
+                traced.begin();
+                traced.waitTime = (enqueuedAt == 0) ? 0 : System.nanoTime() - enqueuedAt;
+            }
+            Object result = outcome; //a runnable's return value
+            Throwable failure = null;
+            try {
+                if (isCallable) {
+                    result = ((Callable<T>) gullible).call();
+                } else {
+                    ((Runnable) gullible).run();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+            //the outcome and the metrics are in before waiters see it done
+            boolean finished = STATE.compareAndSet(this, RUNNING, COMPLETING);
+            runner = null;
+            if (overrun != null) {
+                overrun.cancel();
+            }
+            if (limit != null) {
+                finishedUnder(limit);
+            }
+            if (recorder != null) {
+                if (finished) {
+                    recorder.taskFinished(realPriority, System.nanoTime() - started, failure == null);
+                } else {
+                    //cancelled while it ran, counted as cancelled already
+                    recorder.taskStopped(realPriority, System.nanoTime() - started);
+                }
+            }
+            traced.end();
+            if (traced.shouldCommit()) {
+                traced.priority = TaskEvents.priority(realPriority);
+                traced.worker = Thread.currentThread().getName();
+                traced.outcome = !finished ? "CANCELLED" : (failure != null) ? "EXCEPTIONAL" : "NORMAL";
+                traced.commit();
+            }
+            if (!finished) {
+                //cancel(true) got it while it ran: wait for its interrupt to land, then keep it from the next task
+                while (state == INTERRUPTING) {
+                    Thread.yield();
+                }
+                Thread.interrupted();
+                afterDone();
+                return;
+            }
+            if (failure != null) {
+                failure.printStackTrace();
+                outcome = failure;
+                state = EXCEPTIONAL;
+            } else if (periodic != null) {
+                //a periodic task goes back to NEW, it is only done once cancelled or failed
+                outcome = result;
+                state = NEW;
+                periodic.rearm();
+                return;
+            } else {
+                outcome = result;
+                state = NORMAL;
+            }
+            finishCompletion();
+        }
+
+        //executionTimeout only: cancel(true) once it has run that long
+        private TimerWheel.Timeout armOverrun() {
+            if (executionTimeout <= 0)
+                return null;
+
+            try {
+                return timers().add(() -> {
+                    if (cancel(true)) {
+                        StuckTaskHandler handler = stuckHandler;
+                        if (handler != null) {
+                            try {
+                                handler.onOverrun(this, Duration.ofNanos(executionTimeout));
+                            } catch (RuntimeException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                }, System.nanoTime() + executionTimeout);
+            } catch (RejectedExecutionException | IllegalStateException shut) {
+                return null; //the pool is shutting down, it runs without a timeout
+            }
+        }
+
+        @Override
+        public int compareTo(Task<?> task) {
+            if (scheduling == SchedulingPolicy.STRICT) {
+                int byPriority = Integer.compare(task.realPriority, this.realPriority);
+                if (byPriority != 0 || (this.group == null && task.group == null))
+                    return byPriority;
+                return Long.compare(this.fairTag, task.fairTag);
+            }
+            return Long.compare(this.rank, task.rank);
+        }
+
+        /*
+         * a task that has not started is cancelled and unqueued. one that is running is only
+         * cancelled with mayInterruptIfRunning: its worker is interrupted and the future reports it
+         * cancelled right away, the worker moves on once the task gives up.
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!STATE.compareAndSet(this, NEW, CANCELLED)) {
+                return mayInterruptIfRunning && interruptRunning();
+            }
+            PoolMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.taskCancelled();
+            }
+            traceCancelled(false);
+            try {
+                //best effort, a task we cannot find is skipped by whoever dequeues it
+                if (!wpq.remove(Task.this)) {
+                    removeLocal(Task.this);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            signalRoom();
+            finishCompletion();
+            return true;
+        }
+
+        @Override
+        public int heapIndex() {
+            return heapIndex;
+        }
+        @Override
+        public void heapIndex(int index) {
+            heapIndex = index;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state >= CANCELLED;
+        }
+        @Override
+        public boolean isDone() {
+           return state > COMPLETING;
+        }
+
+        @Override
+        public T get() throws InterruptedException {
+            awaitDone(false, 0L);
+            return report();
+        }
+
+        //a timeout returns null, like a cancelled or failed task does
+        @Override
+        public T get(long l, TimeUnit timeUnit) throws InterruptedException {
+            awaitDone(true, timeUnit.toNanos(l));
+            return report();
+        }
+
+        @SuppressWarnings("unchecked")
+        private T report() {
+            return (state == NORMAL) ? (T) outcome : null;
+        }
+
+        private void awaitDone(boolean timed, long nanos) throws InterruptedException {
+            long deadline = timed ? System.nanoTime() + nanos : 0L;
+            WaitNode node = null;
+            boolean queued = false;
+            while (!isDone()) {
+                if (Thread.interrupted()) {
+                    removeWaiter(node);
+                    throw new InterruptedException();
+                }
+                if (node == null) {
+                    node = new WaitNode();
+                } else if (!queued) {
+                    node.next = waiters;
+                    queued = WAITERS.compareAndSet(this, node.next, node);
+                } else if (timed) {
+                    nanos = deadline - System.nanoTime();
+                    if (nanos <= 0L) {
+                        removeWaiter(node);
+                        return;
+                    }
+                    LockSupport.parkNanos(this, nanos);
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+
+        private void finishCompletion() {
+            releaseWaiters();
+            afterDone();
+        }
+
+        private void releaseWaiters() {
+            WaitNode q;
+            while ((q = waiters) != null) {
+                if (WAITERS.compareAndSet(this, q, null)) {
+                    for (; q != null; q = q.next) {
+                        Thread t = q.thread;
+                        if (t != null) {
+                            q.thread = null;
+                            LockSupport.unpark(t);
+                        }
+                    }
+                    break;
+                }
+            }
+            if (completion != null) {
+                completeStage();
+            }
+            if (doneTo != null) {
+                doneTo.add(this);
+            }
+        }
+
+        //whatever was waiting for the task itself to be over, not only its future
+        private void afterDone() {
+            gullible = null;
+            if (key != null) {
+                advanceLane(this);
+            }
+            if (node != null && !node.settled) {
+                settleGraph(this);
+            }
+            if (group != null && group.getMaxConcurrent() > 0) {
+                releaseSlot(this);
+            }
+            if (dedupKey != null) {
+                inFlight.remove(dedupKey, this);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void completeStage() {
+            switch (state) {
+                case NORMAL:
+                    completion.complete((T) outcome);
+                    break;
+                case EXCEPTIONAL:
+                    completion.completeExceptionally((Throwable) outcome);
+                    break;
+                default:
+                    completion.cancel(false);
+            }
+        }
+
+        //unlinks waiters that timed out or were interrupted
+        private void removeWaiter(WaitNode node) {
+            if (node == null)
+                return;
+
+            node.thread = null;
+            retry:
+            while (true) {
+                for (WaitNode pred = null, q = waiters, s; q != null; q = s) {
+                    s = q.next;
+                    if (q.thread != null) {
+                        pred = q;
+                    } else if (pred != null) {
+                        pred.next = s;
+                        if (pred.thread == null)
+                            continue retry;
+                    } else if (!WAITERS.compareAndSet(this, q, s)) {
+                        continue retry;
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    //a key's head task, the one in wpq or running, and the ones behind it. guarded by keyLanes.compute
+    static final class KeyLane {
+        private Task<?> head;
+        private final ArrayDeque<Task<?>> waiting = new ArrayDeque<>(2);
+
+        KeyLane(Task<?> head) {
+            this.head = head;
+        }
+    }
+
+    private static final int NEW = 0;
+    private static final int RUNNING = 1;
+    private static final int COMPLETING = 2; //ran, execute is writing the outcome and cancel can no longer get in
+    private static final int NORMAL = 3;
+    private static final int EXCEPTIONAL = 4;
+    private static final int CANCELLED = 5;
+    private static final int INTERRUPTING = 6; //cancel(true) of a running task, CANCELLED once the interrupt is sent
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<Task> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<Task, WaitNode> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(Task.class, WaitNode.class, "waiters");
+
+    private static final class WaitNode {
+        volatile Thread thread = Thread.currentThread();
+        volatile WaitNode next;
+    }
+
+    private class ThreadAction extends Thread {
+    //held while running a task, so interruptIdleWorkers can tell idle workers from busy ones
+    private final ReentrantLock runLock = new ReentrantLock();
+    //work stealing only: a deque per Priority, the owner works LIFO at the tail, thieves take the head
+    private final ConcurrentLinkedDeque<Task<?>>[] localDeques;
+    //shared queue mode: what is left of the last dequeueUpTo, highest priority first
+    private final ArrayDeque<Task<?>> batch = new ArrayDeque<>();
+    //the task running on us right now, for StuckCheck
+    private volatile Task<?> current;
+
+        @SuppressWarnings("unchecked")
+        ThreadAction() {
+            if (workStealing) {
+                localDeques = new ConcurrentLinkedDeque[Priority.values().length];
+                for (int i = 0; i < localDeques.length; ++i) {
+                    localDeques[i] = new ConcurrentLinkedDeque<>();
+                }
+            } else {
+                localDeques = null;
+            }
+        }
+
+        ThreadPool owner() {
+            return ThreadPool.this;
+        }
+
+        @Override
+        public void run(){
+            while(passGate(this)) {
+                Task<?> toPerform;
+                refillSpill();
+                try {
+                    if (virtualFactory != null) {
+                        dispatchVirtual();
+                        continue;
+                    }
+                    toPerform = workStealing ? nextStealing() : nextShared();
+                } catch (InterruptedException wakeUp) {
+                    continue; //the gate changed, see interruptIdleWorkers
+                }
+                if (toPerform == null) {
+                    //idle for the whole keep alive, or nothing left to take while shutting down
+                    if (!isShut && retire(this))
+                        break;
+                    continue;
+                }
+                runTask(toPerform);
+            }
+            //only shutdownNow leaves a batch behind
+            for (Task<?> leftover : batch) {
+                leftover.cancel(false);
+            }
+            batch.clear();
+            if (virtualFactory != null) {
+                //let the virtual threads still running finish before we count as terminated
+                virtualPermits.acquireUninterruptibly(numOfThreadz);
+                virtualPermits.release(numOfThreadz);
+            }
+            if (runningWorkers.decrementAndGet() == 0 && isShut) {
+                closeSpill();
+            }
+        }
+
+        private void runTask(Task<?> toPerform) {
+            runLock.lock();
+            try {
+                //an interrupt meant for an idle worker must not reach the task, one from shutdownNow must
+                Thread.interrupted();
+                if (isStopped) {
+                    interrupt();
+                }
+                current = toPerform;
+                traceDequeued(toPerform);
+                toPerform.execute();
+            } finally {
+                current = null;
+                runLock.unlock();
+            }
+        }
+
+        boolean hasNothingLocal() {
+            if (!batch.isEmpty())
+                return false;
+            if (localDeques != null) {
+                for (ConcurrentLinkedDeque<Task<?>> deque : localDeques) {
+                    if (!deque.isEmpty())
+                        return false;
+                }
+            }
+            return true;
+        }
+
+        boolean hasNothingLeft() {
+            SpillFile tier = spill;
+            //a virtual thread queues what its task hands off before it leaves the set, so look at the set first
+            return (virtualRunning == null || virtualRunning.isEmpty())
+                    && hasNothingLocal() && wpq.isEmpty() && (tier == null || tier.size() == 0);
+        }
+
+        //shutdownNow, tasks a thief takes meanwhile are run as usual
+        void drainLocal(Collection<Task<?>> drained) {
+            if (localDeques == null)
+                return;
+
+            for (ConcurrentLinkedDeque<Task<?>> deque : localDeques) {
+                Task<?> task;
+                while ((task = deque.pollFirst()) != null) {
+                    localQueued.decrementAndGet();
+                    drained.add(task);
+                }
+            }
+        }
+
+        /*
+         * a permit is taken before dequeuing so tasks over the limit wait in wpq,
+         * still in priority order and still cancellable.
+         * once shut it only blocks on wpq while tasks still run, they may hand off more (a key's next task,
+         * a graph's dependents). the last of them interrupts us, and the gate ends the dispatcher when all is done.
+         */
+        private void dispatchVirtual() throws InterruptedException {
+            virtualPermits.acquire();
+            Task<?> toPerform;
+            try {
+                toPerform = (isShut && virtualRunning.isEmpty()) ? wpq.poll() : wpq.dequeue();
+            } catch (InterruptedException e) {
+                virtualPermits.release();
+                throw e;
+            }
+            if (toPerform == null || toPerform.isDone()) {
+                virtualPermits.release();
+                return;
+            }
+            traceDequeued(toPerform);
+            Thread running = virtualFactory.newThread(() -> {
+                try {
+                    toPerform.execute();
+                } finally {
+                    virtualRunning.remove(Thread.currentThread());
+                    virtualPermits.release();
+                    if (isShut && virtualRunning.isEmpty()) {
+                        interrupt(); //the dispatcher may be waiting on wpq for what we never queued
+                    }
+                }
+            });
+            //added before it starts, so it never runs a task without being in the set
+            virtualRunning.add(running);
+            running.start();
+        }
+
+        //null once the scaling keep alive passed without work, or when shut and wpq is empty
+        private Task<?> nextShared() throws InterruptedException {
+            if (batch.isEmpty()) {
+                //never block once shut, the gate decides when to leave
+                if (isShut)
+                    return wpq.poll();
+                ScalingPolicy policy = scaling;
+                int batchSize = workerBatchSize;
+                IdleStrategy idle = idleStrategy;
+                if (policy != null || !idle.parksAtOnce()) {
+                    Task<?> first = idle.parksAtOnce()
+                            ? wpq.poll(policy.getKeepAlive().toNanos(), TimeUnit.NANOSECONDS)
+                            : spinThenPark(idle, policy);
+                    if (first == null || batchSize == 1)
+                        return first;
+                    batch.add(first);
+                    wpq.drainTo(batch, batchSize - 1);
+                } else if (batchSize == 1) {
+                    return wpq.dequeue();
+                } else {
+                    wpq.dequeueUpTo(batch, batchSize);
+                }
+            }
+            return batch.poll();
+        }
+
+        //null once the scaling keep alive passed without work
+        private Task<?> spinThenPark(IdleStrategy idle, ScalingPolicy policy) throws InterruptedException {
+            long deadline = (policy == null) ? 0 : System.nanoTime() + policy.getKeepAlive().toNanos();
+            while (true) {
+                Task<?> task = null;
+                spinningWorkers.incrementAndGet();
+                try {
+                    for (int i = 0; i < idle.getSpins() && !isInterrupted(); ++i) {
+                        if ((task = wpq.poll()) != null)
+                            break;
+                        Thread.onSpinWait();
+                    }
+                    for (int i = 0; task == null && i < idle.getYields() && !isInterrupted(); ++i) {
+                        if ((task = wpq.poll()) != null)
+                            break;
+                        Thread.yield();
+                    }
+                    if (task == null) {
+                        parkedWorkers.addFirst(this);
+                    }
+                } finally {
+                    spinningWorkers.decrementAndGet();
+                }
+                if (task == null) {
+                    //no longer spinning, so look once more before nobody wakes us for it
+                    task = wpq.poll();
+                    if (task == null && !isInterrupted()) {
+                        if (policy == null) {
+                            LockSupport.park(this);
+                        } else if (deadline - System.nanoTime() > 0) {
+                            LockSupport.parkNanos(this, deadline - System.nanoTime());
+                        }
+                    }
+                    parkedWorkers.remove(this);
+                }
+                if (Thread.interrupted()) {
+                    //raced with the gate, the task waits in our batch until it lets us through
+                    if (task != null) {
+                        batch.addFirst(task);
+                    }
+                    throw new InterruptedException();
+                }
+                if (task != null) {
+                    //submitters skipped the wake up while we spun, pass it on if there is more
+                    if (!wpq.isEmpty()) {
+                        signalWork(1);
+                    }
+                    return task;
+                }
+                if (policy != null && deadline - System.nanoTime() <= 0)
+                    return null;
+            }
+        }
+
+        /*
+         * highest priority wins across wpq, our own deque and our peers' deques,
+         * on a tie the local task goes first for locality.
+         * with nothing anywhere we park until a submit or a push wakes us, or a short, growing
+         * park runs out and we rescan the deques anyway.
+         */
+        private Task<?> nextStealing() throws InterruptedException {
+            long park = 1;
+            long idleSince = System.nanoTime();
+            while (true) {
+                int localTop = highestLocalPriority();
+                Task<?> head = wpq.peek();
+                if (head != null && head.realPriority > localTop) {
+                    Task<?> global = wpq.poll();
+                    if (global != null)
+                        return global;
+                }
+                if (localTop != Integer.MIN_VALUE) {
+                    Task<?> local = takeLocal(localTop);
+                    if (local != null)
+                        return local;
+                    continue;
+                }
+                Task<?> global = wpq.poll();
+                if (global != null || isShut)
+                    return global;
+                //in parkedWorkers before the last look, so whatever is queued or pushed after it wakes us
+                parkedWorkers.addFirst(this);
+                if (wpq.isEmpty() && highestLocalPriority() == Integer.MIN_VALUE && !isInterrupted()) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(park));
+                }
+                parkedWorkers.remove(this);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                park = Math.min(park * 2, MAX_STEAL_PARK_MILLIS);
+                ScalingPolicy policy = scaling;
+                if (policy != null && System.nanoTime() - idleSince > policy.getKeepAlive().toNanos())
+                    return null;
+            }
+        }
+
+        private int highestLocalPriority() {
+            for (int p = localDeques.length - 1; p >= 0; --p) {
+                if (!localDeques[p].isEmpty())
+                    return p;
+                for (ThreadAction peer : threadsList) {
+                    if (!peer.localDeques[p].isEmpty())
+                        return p;
+                }
+            }
+            return Integer.MIN_VALUE;
+        }
+
+        /*
+         * join on a worker: runs the awaited task if it is still queued, else the next task we would
+         * have taken anyway. false if there is nothing to run, or the gate says not to run anything.
+         */
+        boolean help(Task<?> awaited) throws InterruptedException {
+            if (isPaused || isStopped)
+                return false;
+
+            Task<?> next = null;
+            if (awaited != null && !awaited.isDone()
+                    && (batch.remove(awaited) || wpq.remove(awaited) || removeLocal(awaited))) {
+                next = awaited;
+            }
+            if (next == null) {
+                next = batch.poll();
+            }
+            if (next == null && localDeques != null) {
+                int localTop = highestLocalPriority();
+                if (localTop != Integer.MIN_VALUE) {
+                    next = takeLocal(localTop);
+                }
+            }
+            if (next == null) {
+                next = wpq.poll();
+            }
+            if (next == null)
+                return false;
+
+            //we hold runLock already, the task we are helping from runs under it
+            Task<?> helping = current;
+            current = next;
+            traceDequeued(next);
+            try {
+                next.execute();
+            } finally {
+                current = helping;
+            }
+            return true;
+        }
+
+        private Task<?> takeLocal(int priority) {
+            Task<?> local = localDeques[priority].pollLast();
+            for (ThreadAction peer : threadsList) {
+                if (local != null)
+                    break;
+                if (peer != this)
+                    local = peer.localDeques[priority].pollFirst();
+            }
+            if (local != null) {
+                localQueued.decrementAndGet();
+            }
+            return local;
+        }
+    }
+}
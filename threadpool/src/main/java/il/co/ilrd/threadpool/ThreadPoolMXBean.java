@@ -0,0 +1,29 @@
+package il.co.ilrd.threadpool;
+
+import java.util.Map;
+
+//what ThreadPool.registerMBean exports, latencies are keyed by Priority name
+public interface ThreadPoolMXBean {
+
+    boolean isMetricsEnabled();
+
+    void setMetricsEnabled(boolean enabled);
+
+    long getCompletedTasks();
+
+    long getFailedTasks();
+
+    long getCancelledTasks();
+
+    long getRejectedTasks();
+
+    int getQueueDepth();
+
+    int getBusyWorkers();
+
+    int getIdleWorkers();
+
+    Map<String, Long> getQueueWaitP99Micros();
+
+    Map<String, Long> getExecutionP99Micros();
+}
@@ -0,0 +1,133 @@
+package il.co.ilrd.threadpool;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * the state behind one RateLimit: the token bucket as a theoretical arrival time (GCRA), one CAS per
+ * start and no lock, the tasks running under it, and the ones set aside until they may start.
+ * the pool counts the ones set aside against its queue capacity, so there are never many more than fit in it.
+ * retired once the limit is replaced or the pool shuts down, from then on everything may start.
+ */
+class Throttle {
+    //~73 years, interval and tolerance saturate there so arrival - now never overflows
+    private static final long MAX_NANOS = Long.MAX_VALUE / 4;
+    private final RateLimit limit;
+    private final long interval; //nanos per permit, 0 for no rate
+    private final long tolerance; //how far the arrival time may run ahead, the burst
+    private final AtomicLong arrival;
+    private final AtomicInteger running = new AtomicInteger();
+    private final ConcurrentLinkedDeque<Object> deferred = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger deferredCount = new AtomicInteger();
+    //a timer is on the way to release deferred tasks, at most one at a time
+    final AtomicBoolean armed = new AtomicBoolean(false);
+    private volatile boolean retired = false;
+
+    Throttle(RateLimit limit, long now) {
+        this.limit = limit;
+        this.interval = (limit.getPermitsPerSecond() == 0) ? 0
+                : Math.min(Math.max(1, (long) (1e9 / limit.getPermitsPerSecond())), MAX_NANOS);
+        long extra = limit.getBurst() - 1;
+        this.tolerance = (interval > 0 && extra > MAX_NANOS / interval) ? MAX_NANOS : interval * extra;
+        this.arrival = new AtomicLong(now);
+    }
+
+    RateLimit limit() {
+        return limit;
+    }
+
+    //0 if a task may start now, it then counts against the limit. -1 if it has to wait for one to finish
+    long tryStart(long now) {
+        if (retired)
+            return 0;
+
+        int max = limit.getMaxConcurrent();
+        int current;
+        do {
+            current = running.get();
+            if (max > 0 && current >= max)
+                return -1;
+        } while (!running.compareAndSet(current, current + 1));
+
+        if (interval == 0)
+            return 0;
+        long due;
+        do {
+            due = arrival.get();
+            //differences only, nanoTime may wrap
+            long wait = (due - now) - tolerance;
+            if (wait > 0) {
+                running.decrementAndGet();
+                return wait;
+            }
+        } while (!arrival.compareAndSet(due, now + Math.max(due - now, 0) + interval));
+        return 0;
+    }
+
+    void finished() {
+        running.decrementAndGet();
+    }
+
+    //how many deferred tasks could start right now, a guess that tryStart settles
+    int startable(long now) {
+        if (retired)
+            return Integer.MAX_VALUE;
+
+        long room = Integer.MAX_VALUE;
+        int max = limit.getMaxConcurrent();
+        if (max > 0) {
+            room = max - running.get();
+        }
+        if (interval > 0) {
+            long ahead = Math.max(arrival.get() - now, 0);
+            room = Math.min(room, (ahead > tolerance) ? 0 : (tolerance - ahead) / interval + 1);
+        }
+        return (int) Math.max(room, 0);
+    }
+
+    //0 unless the rate holds the next start back
+    long nanosUntilToken(long now) {
+        return (interval == 0 || retired) ? 0 : Math.max((arrival.get() - now) - tolerance, 0);
+    }
+
+    void defer(Object task) {
+        deferredCount.incrementAndGet();
+        deferred.addLast(task);
+    }
+
+    //back to the front, it was next
+    void deferFirst(Object task) {
+        deferredCount.incrementAndGet();
+        deferred.addFirst(task);
+    }
+
+    Object pollDeferred() {
+        Object task = deferred.pollFirst();
+        if (task != null) {
+            deferredCount.decrementAndGet();
+        }
+        return task;
+    }
+
+    int deferredCount() {
+        return deferredCount.get();
+    }
+
+    boolean hasDeferred() {
+        return !deferred.isEmpty();
+    }
+
+    int running() {
+        return running.get();
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    boolean isRetired() {
+        return retired;
+    }
+}
@@ -0,0 +1,211 @@
+package il.co.ilrd.threadpool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * hashed timer wheel: one bucket per tick, a timer more than a turn ahead sits out the
+ * remaining rounds in its bucket. add and cancel only touch two lock-free queues, O(1) however
+ * many timers are pending, the ticker thread does the bucket work and runs whatever is due.
+ * timers fire up to one tick late, never early.
+ */
+class TimerWheel {
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long tickNanos;
+    private final long startTime;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread ticker;
+    private volatile boolean stopped = false;
+    private long tick = 0; //ticker thread only
+
+    TimerWheel(long tickDuration, TimeUnit unit, int ticksPerWheel, String name) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0)
+            throw new IllegalArgumentException();
+
+        int buckets = Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        wheel = new Bucket[Math.max(buckets, 1)];
+        for (int i = 0; i < wheel.length; ++i) {
+            wheel[i] = new Bucket();
+        }
+        mask = wheel.length - 1;
+        tickNanos = unit.toNanos(tickDuration);
+        startTime = System.nanoTime();
+        ticker = new Thread(this::tickTock, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    //dueAt is a System.nanoTime() value, one in the past fires on the next tick
+    Timeout add(Runnable task, long dueAt) {
+        if (stopped)
+            throw new IllegalStateException("timer wheel stopped");
+
+        Timeout timeout = new Timeout(task, dueAt);
+        pending.add(timeout);
+        //lost the race with stop(), which may or may not have seen it
+        if (stopped && timeout.cancel())
+            throw new IllegalStateException("timer wheel stopped");
+        return timeout;
+    }
+
+    //stops the ticker and returns the tasks of the timers that never fired
+    List<Runnable> stop() throws InterruptedException {
+        stopped = true;
+        ticker.interrupt();
+        if (Thread.currentThread() != ticker) {
+            ticker.join();
+        }
+        List<Runnable> unfired = new ArrayList<>();
+        for (Bucket bucket : wheel) {
+            for (Timeout t = bucket.head; t != null; t = t.next) {
+                if (t.state == Timeout.INIT) {
+                    unfired.add(t.task);
+                }
+            }
+        }
+        for (Timeout t : pending) {
+            if (t.state == Timeout.INIT) {
+                unfired.add(t.task);
+            }
+        }
+        return unfired;
+    }
+
+    private void tickTock() {
+        while (!stopped) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) - deadline < 0) {
+                LockSupport.parkNanos(this, deadline - now);
+                if (stopped)
+                    return;
+            }
+            removeCancelled();
+            transferPending();
+            wheel[(int) (tick & mask)].expire();
+            ++tick;
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    //bounded, so a burst of adds cannot keep the ticker from expiring anything
+    private void transferPending() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; ++i) {
+            Timeout timeout = pending.poll();
+            if (timeout == null)
+                return;
+            if (timeout.state != Timeout.INIT)
+                continue;
+
+            long dueTick = Math.max((timeout.dueAt - startTime) / tickNanos, tick);
+            timeout.rounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (dueTick & mask)].add(timeout);
+        }
+    }
+
+    final class Timeout {
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long dueAt;
+        private long rounds;
+        private Timeout next;
+        private Timeout prev;
+        private Bucket bucket;
+        volatile int state = INIT;
+
+        private Timeout(Runnable task, long dueAt) {
+            this.task = task;
+            this.dueAt = dueAt;
+        }
+
+        //O(1), the ticker unlinks it from its bucket on the next tick
+        boolean cancel() {
+            if (!TIMEOUT_STATE.compareAndSet(this, INIT, CANCELLED))
+                return false;
+
+            cancelled.add(this);
+            return true;
+        }
+
+        boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<Timeout> TIMEOUT_STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    //doubly linked, so a cancelled timer is unlinked without a scan. ticker thread only
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = timeout.prev = null;
+            timeout.bucket = null;
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state != Timeout.INIT) {
+                    remove(timeout);
+                } else if (timeout.rounds <= 0) {
+                    remove(timeout);
+                    if (TIMEOUT_STATE.compareAndSet(timeout, Timeout.INIT, Timeout.EXPIRED)) {
+                        try {
+                            timeout.task.run();
+                        } catch (Throwable e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } else {
+                    --timeout.rounds;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package il.co.ilrd.threadpool;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/*
+ * one lock-free MPMC lane per discrete priority, no global lock.
+ * lane index 0 is the lowest priority, dequeue drains the highest non-empty lane first.
+ * FIFO within a lane.
+ */
+public class WaitableLaneQueue<E> implements WaitableQueue<E> {
+    private final ConcurrentLinkedQueue<E>[] lanes;
+    private final ToIntFunction<? super E> laneOf;
+    private final Semaphore Qsem;
+    private final Semaphore DQSem;
+    private static final int INITCAP = 11;
+
+    private final int MAXCAPACITY;
+
+    @SuppressWarnings("unchecked")
+    public WaitableLaneQueue(int numOfLanes, ToIntFunction<? super E> laneOf, int maxcapacity) {
+        if (numOfLanes <= 0 || laneOf == null)
+            throw new IllegalArgumentException();
+        if(maxcapacity < INITCAP){
+            maxcapacity = INITCAP;}
+
+        MAXCAPACITY = maxcapacity;
+        this.laneOf = laneOf;
+        lanes = new ConcurrentLinkedQueue[numOfLanes];
+        for (int i = 0; i < numOfLanes; ++i) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+        Qsem = new Semaphore(MAXCAPACITY);
+        DQSem = new Semaphore(0);
+    }
+
+    //thread safe
+    @Override
+    public void enqueue(E element) throws InterruptedException {
+        ConcurrentLinkedQueue<E> lane = laneFor(element);
+        Qsem.acquire();
+        lane.offer(element);
+        DQSem.release();
+    }
+
+    //thread safe
+    @Override
+    public boolean offer(E element) {
+        ConcurrentLinkedQueue<E> lane = laneFor(element);
+        if (!Qsem.tryAcquire()) { return false;}
+
+        lane.offer(element);
+        DQSem.release();
+        return true;
+    }
+
+    //thread safe
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        ConcurrentLinkedQueue<E> lane = laneFor(element);
+        if (!Qsem.tryAcquire(timeout, unit)) { return false;}
+
+        lane.offer(element);
+        DQSem.release();
+        return true;
+    }
+
+    //thread safe
+    @Override
+    public void enqueueAll(Collection<? extends E> elements) throws InterruptedException {
+        for (E element : elements) {
+            laneFor(element); //fail before any permit is taken
+        }
+        Iterator<? extends E> iter = elements.iterator();
+        int left = elements.size();
+        while (left > 0) {
+            int permits = Permits.acquireUpTo(Qsem, left);
+            for (int i = 0; i < permits; ++i) {
+                E element = iter.next();
+                laneFor(element).offer(element);
+            }
+            DQSem.release(permits);
+            left -= permits;
+        }
+    }
+
+    @Override
+    public int dequeueUpTo(Collection<? super E> c, int max) throws InterruptedException {
+        if (max <= 0) { return 0;}
+
+        return take(c, Permits.acquireUpTo(DQSem, max));
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int max) {
+        return take(c, Permits.tryAcquireUpTo(DQSem, max));
+    }
+
+    //thread safe
+    @Override
+    public E dequeue() throws InterruptedException {
+        DQSem.acquire();
+        return take();
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!DQSem.tryAcquire(timeout, unit)) { return null;}
+
+        return take();
+    }
+
+    @Override
+    public E poll() {
+        if (!DQSem.tryAcquire()) { return null;}
+
+        return take();
+    }
+
+    @Override
+    public E peek() {
+        for (int i = lanes.length - 1; i >= 0; --i) {
+            E head = lanes[i].peek();
+            if (head != null)
+                return head;
+        }
+        return null;
+    }
+
+    //caller holds that many DQSem permits
+    private int take(Collection<? super E> c, int permits) {
+        for (int i = 0; i < permits; ++i) {
+            c.add(pollLanes());
+        }
+        if (permits > 0) {
+            Qsem.release(permits);
+        }
+        return permits;
+    }
+
+    //caller holds a DQSem permit
+    private E take() {
+        E deQ = pollLanes();
+        Qsem.release();
+        return deQ;
+    }
+
+    //thread safe
+    @Override
+    public boolean remove(E element) throws InterruptedException {
+        boolean found = DQSem.tryAcquire();
+        if(!found) { return false;}
+
+        found = laneFor(element).remove(element);
+        if (found) {
+            Qsem.release();
+        } else {
+            DQSem.release();
+        }
+        return found;
+    }
+
+    //thread safe, the oldest element of the lowest lane below element's
+    @Override
+    public E pollLowerThan(E element) {
+        int below = laneOf.applyAsInt(element);
+        if (!DQSem.tryAcquire()) { return null;}
+
+        for (int i = 0; i < below && i < lanes.length; ++i) {
+            E lowest = lanes[i].poll();
+            if (lowest != null) {
+                Qsem.release();
+                return lowest;
+            }
+        }
+        DQSem.release();
+        return null;
+    }
+
+    /*
+     * thread safe, element moves to the tail of the lane change puts it in. the permits stay as they
+     * are, a dequeuer that comes between the two lanes spins until it is back.
+     */
+    @Override
+    public boolean update(E element, Consumer<? super E> change) {
+        if (!laneFor(element).remove(element))
+            return false;
+
+        change.accept(element);
+        laneFor(element).offer(element);
+        return true;
+    }
+
+    //O(1), the slots taken, counting an element a racing enqueue or dequeue is still moving
+    @Override
+    public int size() {
+        return MAXCAPACITY - Qsem.availablePermits();
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Qsem.availablePermits();
+    }
+
+    @Override
+    public int capacity() {
+        return MAXCAPACITY;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (ConcurrentLinkedQueue<E> lane : lanes) {
+            if (!lane.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * the caller holds a DQSem permit, so an element is guaranteed to be in one of the lanes,
+     * a scan can only come back empty while a racing consumer is between its permit and its poll.
+     */
+    private E pollLanes() {
+        while (true) {
+            for (int i = lanes.length - 1; i >= 0; --i) {
+                E deQ = lanes[i].poll();
+                if (deQ != null)
+                    return deQ;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private ConcurrentLinkedQueue<E> laneFor(E element) {
+        int lane = laneOf.applyAsInt(element);
+        if (lane < 0 || lane >= lanes.length)
+            throw new IllegalArgumentException("no lane " + lane);
+        return lanes[lane];
+    }
+}
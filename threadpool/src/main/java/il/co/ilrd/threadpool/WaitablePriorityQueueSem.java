@@ -0,0 +1,248 @@
+package il.co.ilrd.threadpool;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+public class WaitablePriorityQueueSem<E> implements WaitableQueue<E> {
+    private final IndexedHeap<E> myQ;
+    private final Semaphore Qsem;
+    private final Semaphore DQSem;
+    private final ReentrantLock lock = new ReentrantLock();
+    private static final int INITCAP = 11;
+
+    private final int MAXCAPACITY;
+
+    public WaitablePriorityQueueSem(int maxcapacity) {
+        this(null,INITCAP,maxcapacity);
+    }
+
+    public WaitablePriorityQueueSem(int initialCapacity, int maxcapacity) {
+        this(null,initialCapacity, maxcapacity);
+    }
+
+    public WaitablePriorityQueueSem(Comparator<? super E> compare, int maxcapacity) {
+       this(compare,INITCAP, maxcapacity);
+    }
+    public WaitablePriorityQueueSem(Comparator<? super E> compare, int initialCapacity, int maxcapacity) {
+        if(maxcapacity < INITCAP){
+            maxcapacity = INITCAP;}
+
+        MAXCAPACITY = maxcapacity;
+        myQ =  new IndexedHeap<>(initialCapacity, compare);
+        Qsem = new Semaphore(MAXCAPACITY);
+        DQSem = new Semaphore(0);
+
+    }
+
+    //thread safe
+    public void enqueue(E element) throws InterruptedException {
+        Qsem.acquire();
+        lock.lock();
+        try {
+            myQ.add(element);
+            DQSem.release();
+            //System.out.println(Thread.currentThread().getName() + " Q'd here  " + myQ.peek());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //thread safe
+    public boolean offer(E element) {
+        if (!Qsem.tryAcquire()) { return false;}
+
+        lock.lock();
+        try {
+            myQ.add(element);
+            DQSem.release();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    //thread safe
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!Qsem.tryAcquire(timeout, unit)) { return false;}
+
+        lock.lock();
+        try {
+            myQ.add(element);
+            DQSem.release();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    //thread safe
+    public void enqueueAll(Collection<? extends E> elements) throws InterruptedException {
+        Iterator<? extends E> iter = elements.iterator();
+        int left = elements.size();
+        while (left > 0) {
+            int permits = Permits.acquireUpTo(Qsem, left);
+            lock.lock();
+            try {
+                for (int i = 0; i < permits; ++i) {
+                    myQ.add(iter.next());
+                }
+                DQSem.release(permits);
+            } finally {
+                lock.unlock();
+            }
+            left -= permits;
+        }
+    }
+
+    public int dequeueUpTo(Collection<? super E> c, int max) throws InterruptedException {
+        if (max <= 0) { return 0;}
+
+        return take(c, Permits.acquireUpTo(DQSem, max));
+    }
+
+    public int drainTo(Collection<? super E> c, int max) {
+        return take(c, Permits.tryAcquireUpTo(DQSem, max));
+    }
+
+    public E dequeue() throws InterruptedException {
+        DQSem.acquire();
+        return take();
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!DQSem.tryAcquire(timeout, unit)) { return null;}
+
+        return take();
+    }
+
+    public E poll() {
+        if (!DQSem.tryAcquire()) { return null;}
+
+        return take();
+    }
+
+    public E peek() {
+        lock.lock();
+        try {
+            return myQ.peek();
+        }finally {
+            lock.unlock();
+        }
+    }
+
+    //caller holds that many DQSem permits
+    private int take(Collection<? super E> c, int permits) {
+        if (permits == 0) { return 0;}
+
+        lock.lock();
+        try {
+            for (int i = 0; i < permits; ++i) {
+                c.add(myQ.poll());
+            }
+        }finally {
+            lock.unlock();
+        }
+
+        Qsem.release(permits);
+        return permits;
+    }
+
+    //caller holds a DQSem permit
+    private E take() {
+        E deQ;
+        lock.lock();
+        try {
+            deQ = myQ.poll();
+            //System.out.println(Thread.currentThread().getName() + " DQ'd here");
+        }finally {
+            lock.unlock();
+        }
+
+        Qsem.release();
+        return deQ;
+    }
+
+    //thread safe, O(log n) for IndexedHeap.Slot elements
+    public boolean remove(E element) throws InterruptedException {
+        //a slot that is in no heap cannot be here, no need to take the lock to find out
+        if (element instanceof IndexedHeap.Slot && ((IndexedHeap.Slot) element).heapIndex() < 0) { return false;}
+
+        boolean found = DQSem.tryAcquire();
+        if(!found) { return false;}
+
+        lock.lock();
+        try {
+            found = myQ.remove(element);
+
+            if (found) {
+                Qsem.release();
+            } else {
+                DQSem.release();
+            }
+        }finally {
+            lock.unlock();
+        }
+        return found;
+    }
+
+    //thread safe, a scan of the heap's leaves
+    public E pollLowerThan(E element) {
+        if (!DQSem.tryAcquire()) { return null;}
+
+        E lowest;
+        lock.lock();
+        try {
+            lowest = myQ.pollLowerThan(element);
+        } finally {
+            lock.unlock();
+        }
+        if (lowest == null) {
+            DQSem.release();
+        } else {
+            Qsem.release();
+        }
+        return lowest;
+    }
+
+    //thread safe, change runs under the lock so no comparison sees it half done
+    public boolean update(E element, Consumer<? super E> change) {
+        if (element instanceof IndexedHeap.Slot && ((IndexedHeap.Slot) element).heapIndex() < 0) { return false;}
+
+        lock.lock();
+        try {
+            return myQ.update(element, change);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return myQ.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int remainingCapacity() {
+        return Qsem.availablePermits();
+    }
+
+    public int capacity() {
+        return MAXCAPACITY;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+
+}
+
+
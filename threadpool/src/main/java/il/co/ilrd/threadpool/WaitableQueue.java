@@ -0,0 +1,58 @@
+package il.co.ilrd.threadpool;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * blocking contract shared by the queues ThreadPool can run on:
+ * enqueue blocks while the queue is full, dequeue blocks while it is empty.
+ */
+public interface WaitableQueue<E> {
+
+    void enqueue(E element) throws InterruptedException;
+
+    //non blocking, false if the queue is full
+    boolean offer(E element);
+
+    //waits up to the timeout for room, false if none came up
+    boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException;
+
+    E dequeue() throws InterruptedException;
+
+    //bulk enqueue, takes the lock and the permits once per capacity-sized chunk
+    void enqueueAll(Collection<? extends E> elements) throws InterruptedException;
+
+    //blocks until at least one element is there, then moves up to max into c in dequeue order
+    int dequeueUpTo(Collection<? super E> c, int max) throws InterruptedException;
+
+    //non blocking bulk dequeue, moves up to max into c in dequeue order
+    int drainTo(Collection<? super E> c, int max);
+
+    //null if nothing arrived within the timeout
+    E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    //non blocking, null if empty
+    E poll();
+
+    //non blocking, the element dequeue would return next (or null)
+    E peek();
+
+    boolean remove(E element) throws InterruptedException;
+
+    //non blocking, removes one of the lowest priority elements if dequeue would return it after element, else null
+    E pollLowerThan(E element);
+
+    //non blocking, applies change to a queued element and moves it to where it now belongs, false if it is not queued
+    boolean update(E element, Consumer<? super E> change);
+
+    int size();
+
+    //how many more elements fit right now
+    int remainingCapacity();
+
+    //the most elements it ever holds
+    int capacity();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,1735 @@
+package il.co.ilrd.threadpool;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PoolTest {
+
+    @Test
+    public void testSubmit1Arg() {
+
+        ThreadPool threadsList = new ThreadPool(3);
+
+        Callable<Integer> task = () -> (1 + 2);
+
+        try {
+            Future<Integer> result = threadsList.submit(task);
+            System.out.println(result.get());
+            assertEquals(3, result.get());
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    public void Submit2Arg() {
+        Runnable run1 = () -> System.out.println("JUNIT test2 Hello");
+        ThreadPool pool = new ThreadPool(2);
+
+        try {
+            pool.submit(run1, ThreadPool.Priority.HIGH);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Test
+    void testSubmit() throws InterruptedException, ExecutionException, TimeoutException {
+        Callable<Integer> call1 = () -> 1;
+        Callable<Integer> call2 = () -> 2;
+        Callable<Integer> call3 = () -> 3;
+        Callable<Double> complexCalc = () -> (1.0 - (1.0/3.0) + (1.0/5.0) - (1.0 /7.0) + (1.0/9.0));
+        Runnable run1 = () -> System.out.println("im a runner...");
+        Runnable shutter = () -> System.out.println("im done! dont look at me");
+        ThreadPool tp = new ThreadPool(3);
+        Double answer = 42.0;
+        Runnable run = () -> System.out.println("the answer is " + answer);
+        Future<Double> c1 = tp.submit(complexCalc, ThreadPool.Priority.MED);
+        Future<Integer> f1 = tp.submit(call1, ThreadPool.Priority.LOW);
+        Future<Integer> f2 = tp.submit(call2, ThreadPool.Priority.HIGH);
+        Future<Integer> f3 = tp.submit(call3);
+        Future<Void> r2 = tp.submit(run1, ThreadPool.Priority.HIGH);
+        Future<Double> r1 = tp.submit(run, ThreadPool.Priority.HIGH, answer);
+        Future<Long> future = tp.submit(() -> {
+            long sum = 0;
+            int block = 5000;
+            while (--block > 0); //busy wait
+
+            for (long i = 0; i <= 10000000L; ++i) {
+                sum += i;
+            }
+            return sum;
+        }, ThreadPool.Priority.HIGH);
+        System.out.println((future.get(20L, TimeUnit.SECONDS)));
+        Assertions.assertTrue(f1.get().equals(1));
+        assertTrue(f2.get().equals(2));
+        assertTrue(f3.get().equals(3));
+
+        future.cancel(false);
+        assertTrue(future.isDone());
+
+        assertTrue(c1.get(10l, TimeUnit.SECONDS).equals(0.8349206349206351));
+        assertTrue(r2.get() == null);
+        assertTrue(r1.get() == 42.0);
+        tp.shutdown();
+
+        tp.awaitTermination(5,TimeUnit.SECONDS);
+
+        System.out.println("threadpool: "+ tp.threadsList.size() + " pqsize: " + tp.wpq.size());
+        try {
+            Thread.sleep(5000);
+            tp.submit(shutter, ThreadPool.Priority.HIGH);
+        }catch (RejectedExecutionException e){
+            e.printStackTrace();
+        }
+
+        System.out.println("threadpool: "+ tp.threadsList.size() + " pqsize: " + tp.wpq.size());
+    }
+
+    @Test
+    void cancelTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1);
+        Callable HighPri = () -> {
+            Integer ret = 13;
+            System.out.println("hello from a high priority task " + Thread.currentThread().getId());
+            Thread.sleep(5000);
+            return ret;
+        };
+        Callable<Integer> call2 = () -> 2;
+        Callable<Integer> call3 = () -> 3;
+        Callable toCancel = (Callable) () -> {
+            Integer ret = 13;
+            Thread.sleep(1000);
+            System.out.println("going to be canceled " + Thread.currentThread().getId());
+            return ret;
+        };
+        Future<Integer> f1 = tp.submit(call2, ThreadPool.Priority.LOW);
+        Future<Integer> f2 = tp.submit(call3, ThreadPool.Priority.MED);
+        Future foo = tp.submit(HighPri);
+        Future barf = tp.submit(toCancel, ThreadPool.Priority.LOW);
+        barf.cancel(false);
+        Thread.sleep(5000l);
+        assertTrue(f1.get().equals(2));
+        assertTrue(f2.get().equals(3));
+
+        assertEquals(foo.isDone(), true);
+        assertEquals(barf.get(), null);
+        assertEquals(barf.isCancelled(), true);
+    }
+
+    @Test
+    void priorityTest() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(1);
+        tp.submit(() -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+
+        }, ThreadPool.Priority.MED);
+
+        for (int i = 0; i < 3; ++i) {
+            tp.submit(() -> System.out.print("LOW  "), ThreadPool.Priority.LOW);
+            tp.submit(() -> System.out.print("MED  "), ThreadPool.Priority.MED);
+            tp.submit(() -> System.out.print("anotherMED  "), ThreadPool.Priority.MED);
+            tp.submit(() -> System.out.print("HIGH  "), ThreadPool.Priority.HIGH);
+            tp.submit(() -> System.out.print("anotherHIGH  "), ThreadPool.Priority.HIGH);
+        }
+
+        Thread.sleep(6000);
+    }
+
+    @Test
+    void futureTest() throws InterruptedException, ExecutionException, TimeoutException {
+        Callable<String> c1 = () -> {
+            String str = "a";
+            while (str.length() < 5) {
+                Thread.sleep(500);
+                str += "a";
+            }
+            return str;
+        };
+        ThreadPool tp = new ThreadPool(1);
+        Future<String> f1 = tp.submit(c1, ThreadPool.Priority.HIGH);
+        assertFalse(f1.isDone());
+        assertTrue(f1.get(500, TimeUnit.MILLISECONDS) == null);
+        Thread.sleep(3000);
+        assertTrue(f1.isDone());
+        assertTrue(f1.get().equals("aaaaa"));
+        Callable<String> c2 = () -> "if u see me, your future isn't good :/";
+        tp.submit(c1, ThreadPool.Priority.HIGH);
+        Future<String> f2 = tp.submit(c2, ThreadPool.Priority.HIGH);
+        assertFalse(f2.isCancelled());
+        assertTrue(f2.cancel(false));
+        assertTrue(f2.isCancelled());
+        assertTrue(f2.isDone());
+        assertFalse(f2.cancel(false));
+    }
+    @Test
+    void pauseAndResume() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(2);
+        for (int i = 0; i < 10; ++i) {
+            tp.submit(() -> {
+                try {
+                    Thread.sleep(2000);
+                } catch (InterruptedException e) {}
+                System.out.println("i was here haha");
+            }, ThreadPool.Priority.LOW);
+        }
+        Thread.sleep(1000); // let first two tasks execute
+        tp.pause();
+        Thread.sleep(5000); // semaphore is blocking the tasks
+        tp.resume();
+        Thread.sleep(5000); // tasks should return to execute normally*/
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void setNumberOfThreadsIncrease() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(1);
+        assertTrue(tp.threadsList.size() == 1);
+
+        for (int i = 0; i < 10; ++i) {
+            tp.submit(() -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {}
+                System.out.println(Thread.currentThread().getName());
+            }, ThreadPool.Priority.LOW);
+        }
+        Thread.sleep(3000);
+        tp.setNumberOfThreads(2);
+        assertTrue(tp.threadsList.size() == 2);
+
+        tp.shutdown();
+        tp.awaitTermination();
+
+    }
+
+    @Test
+    void decreaseNumberOfThreadsTest() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(10);
+        assertTrue(tp.threadsList.size() == 10);
+
+        for (int i = 0; i < 20; ++i) {
+            tp.submit(() -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {}
+                System.out.println(Thread.currentThread().getName());
+            }, ThreadPool.Priority.LOW);
+        }
+
+        tp.setNumberOfThreads(2);
+        Thread.sleep(3000);
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.threadsList.size() == 0);
+        assertTrue(tp.wpq.isEmpty());
+    }
+    @Test
+    void decreaseEmptyCtorTest() throws InterruptedException {
+        ThreadPool tp = new ThreadPool();
+        assertTrue(tp.threadsList.size() == 16);
+
+
+        for (int i = 0; i < 20; ++i) {
+            tp.submit(() -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {}
+                System.out.println(Thread.currentThread().getName());
+            }, ThreadPool.Priority.LOW);
+        }
+
+        tp.setNumberOfThreads(2);
+        Thread.sleep(3000);
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.threadsList.size() == 0);
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void IllegualTest() throws InterruptedException {
+        ThreadPool tp = new ThreadPool();
+        assertTrue(tp.threadsList.size() == 16);
+
+        for (int i = 0; i < 20; ++i) {
+            tp.submit(() -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {}
+                System.out.println(Thread.currentThread().getName());
+            }, ThreadPool.Priority.LOW);
+        }
+        try {
+            tp.setNumberOfThreads(-9);
+        }catch(Exception e){
+            System.err.println(e);
+        }
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.threadsList.size() == 0);
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void awaitTerminationTime() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(3);
+        for (int i = 0; i < 15; ++i) {
+            tp.submit(() -> {
+                System.out.println("wait for me!!");
+            }, ThreadPool.Priority.LOW);
+        }
+        try {
+            System.out.println(java.time.LocalTime.now());
+            tp.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+
+            e.printStackTrace();
+        }
+        System.out.println(java.time.LocalTime.now());
+        assertTrue((tp.threadsList.isEmpty()));
+
+    }
+
+    @Test
+    void TimeOut() throws InterruptedException, ExecutionException, TimeoutException {
+        ThreadPool tp = new ThreadPool(1);
+        Future<Integer> f1 = tp.submit(() -> {
+            while(true);
+        }, ThreadPool.Priority.MED);
+        System.out.println(java.time.LocalTime.now());
+        Assertions.assertNull(f1.get(3, TimeUnit.SECONDS));
+        System.out.println("this line should be printed after 3 seconds");
+        tp.shutdown();
+        System.out.println(java.time.LocalTime.now());
+        tp.awaitTermination(4, TimeUnit.SECONDS);
+        System.out.println("this line should be printed after 7 seconds");
+        System.out.println(java.time.LocalTime.now());
+    }
+
+    @Test
+    void multiLaneQueueTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.MULTI_LANE);
+        StringBuffer order = new StringBuffer();
+        tp.submit(() -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {}
+        }, ThreadPool.Priority.MED);
+
+        tp.submit(() -> { order.append("L"); }, ThreadPool.Priority.LOW);
+        tp.submit(() -> { order.append("M"); }, ThreadPool.Priority.MED);
+        Future<Void> last = tp.submit(() -> { order.append("H"); }, ThreadPool.Priority.HIGH);
+        Future<Integer> f1 = tp.submit(() -> 1, ThreadPool.Priority.LOW);
+
+        last.get();
+        assertEquals(1, f1.get());
+        assertEquals("HML", order.toString());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void virtualShutdownTest() throws Exception {
+        if (Runtime.version().feature() < 21)
+            return;
+        //what a running task hands off after shutdown still runs: a key's next task, a group's, a graph's dependent
+        ThreadPool tp = new ThreadPool(4, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.VIRTUAL);
+        CountDownLatch started = new CountDownLatch(3);
+        CountDownLatch gate = new CountDownLatch(1);
+        Callable<Integer> blocker = () -> {
+            started.countDown();
+            gate.await();
+            return 0;
+        };
+        tp.submit("k", blocker, ThreadPool.Priority.MED);
+        Future<Integer> keyed = tp.submit("k", () -> 2, ThreadPool.Priority.MED);
+        TaskGroup capped = new TaskGroup("capped", 1, 1);
+        tp.submit(capped, blocker, ThreadPool.Priority.MED);
+        Future<Integer> grouped = tp.submit(capped, () -> 3, ThreadPool.Priority.MED);
+        TaskGraph graph = new TaskGraph();
+        TaskGraph.Node<Integer> first = graph.add(blocker, ThreadPool.Priority.MED);
+        TaskGraph.Node<Integer> second = graph.add(() -> 4, ThreadPool.Priority.MED, first);
+        CompletableFuture<Void> graphDone = tp.submit(graph);
+        started.await();
+
+        tp.shutdown();
+        gate.countDown();
+        tp.awaitTermination();
+        assertEquals(2, keyed.get());
+        assertEquals(3, grouped.get());
+        assertEquals(4, second.future().get());
+        graphDone.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void workStealingFanOutTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(4, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.WORK_STEALING);
+        ConcurrentLinkedQueue<Future<Integer>> children = new ConcurrentLinkedQueue<>();
+        Future<Integer> parent = tp.submit(() -> {
+            for (int i = 1; i <= 100; ++i) {
+                int value = i;
+                children.add(tp.submit(() -> value, ThreadPool.Priority.MED));
+            }
+            return 0;
+        });
+        parent.get();
+
+        int sum = 0;
+        for (Future<Integer> child : children) {
+            sum += child.get();
+        }
+        assertEquals(5050, sum);
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void workStealingWakeTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(2, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.WORK_STEALING);
+        //an idle peer steals a pushed task right away, not on its next rescan
+        long[] waits = new long[9];
+        for (int i = 0; i < waits.length; ++i) {
+            //long enough for the idle peer's rescan to back off all the way
+            Thread.sleep(50);
+            waits[i] = tp.submit(() -> {
+                CountDownLatch stolen = new CountDownLatch(1);
+                long[] startedAt = new long[1];
+                long pushed = System.nanoTime();
+                tp.submit(() -> {
+                    startedAt[0] = System.nanoTime();
+                    stolen.countDown();
+                }, ThreadPool.Priority.MED);
+                stolen.await();
+                return startedAt[0] - pushed;
+            }, ThreadPool.Priority.MED).get();
+        }
+        Arrays.sort(waits);
+        assertTrue(waits[waits.length / 2] < TimeUnit.MILLISECONDS.toNanos(4));
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void workStealingPriorityTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.WORK_STEALING);
+        StringBuffer order = new StringBuffer();
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Void> parent = tp.submit(() -> {
+            started.countDown();
+            tp.submit(() -> { order.append("L"); }, ThreadPool.Priority.LOW);
+            tp.submit(() -> { order.append("H"); }, ThreadPool.Priority.HIGH);
+            tp.submit(() -> { order.append("M"); }, ThreadPool.Priority.MED);
+            Thread.sleep(200);
+            return null;
+        }, ThreadPool.Priority.LOW);
+        started.await();
+        tp.submit(() -> { order.append("g"); }, ThreadPool.Priority.MED);
+        parent.get();
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertEquals("HMgL", order.toString()); // a local task wins a tie
+    }
+
+    @Test
+    void workStealingCapacityTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.WORK_STEALING,
+                ThreadPool.SchedulingPolicy.STRICT, 11);
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.REJECT);
+        AtomicInteger ran = new AtomicInteger();
+        //the local deque fills up to wpq's capacity, then it is full like wpq would be
+        Future<Integer> parent = tp.submit(() -> {
+            int queued = 0;
+            while (tp.trySubmit(() -> ran.incrementAndGet(), ThreadPool.Priority.MED) != null) {
+                ++queued;
+            }
+            Assertions.assertThrows(RejectedExecutionException.class,
+                    () -> tp.submit(() -> ran.incrementAndGet(), ThreadPool.Priority.MED));
+            return queued;
+        }, ThreadPool.Priority.LOW);
+        assertEquals(11, parent.get());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertEquals(11, ran.get());
+    }
+
+    @Test
+    void virtualModeTest() throws InterruptedException, ExecutionException {
+        if (Runtime.version().feature() < 21) {
+            Assertions.assertThrows(UnsupportedOperationException.class,
+                    () -> new ThreadPool(10, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.VIRTUAL));
+            return;
+        }
+        ThreadPool tp = new ThreadPool(10_000, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.VIRTUAL);
+        assertTrue(tp.threadsList.size() == 1);
+
+        long start = System.nanoTime();
+        ConcurrentLinkedQueue<Future<Integer>> futures = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 5_000; ++i) {
+            futures.add(tp.submit(() -> {
+                Thread.sleep(1000);
+                return 1;
+            }, ThreadPool.Priority.LOW));
+        }
+        int sum = 0;
+        for (Future<Integer> f : futures) {
+            sum += f.get();
+        }
+        assertEquals(5_000, sum);
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+
+        tp.pause();
+        Future<Integer> paused = tp.submit(() -> 1, ThreadPool.Priority.HIGH);
+        Thread.sleep(500);
+        assertFalse(paused.isDone());
+        tp.resume();
+        assertEquals(1, paused.get());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+
+        //shutdownNow interrupts the virtual threads, not only the dispatcher
+        ThreadPool stopped = new ThreadPool(4, ThreadPool.QueueType.LOCKED_HEAP, ThreadPool.WorkerMode.VIRTUAL);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        stopped.submit(() -> {
+            sleeping.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+            return 0;
+        }, ThreadPool.Priority.MED);
+        sleeping.await();
+        start = System.nanoTime();
+        stopped.shutdownNow();
+        stopped.awaitTermination();
+        assertTrue(interrupted.get());
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+    }
+
+    @Test
+    void submitAllAndInvokeTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(3);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 1; i <= 100; ++i) {
+            int value = i;
+            tasks.add(() -> value);
+        }
+        int sum = 0;
+        for (Future<Integer> f : tp.submitAll(tasks, ThreadPool.Priority.LOW)) {
+            sum += f.get();
+        }
+        assertEquals(5050, sum);
+
+        for (Future<Integer> f : tp.invokeAll(tasks)) {
+            assertTrue(f.isDone());
+        }
+
+        Callable<Integer> slow = () -> {
+            Thread.sleep(2000);
+            return 1;
+        };
+        Callable<Integer> broken = () -> {
+            throw new IllegalStateException();
+        };
+        assertEquals(2, tp.invokeAny(Arrays.asList(slow, broken, () -> 2), ThreadPool.Priority.HIGH));
+        Assertions.assertThrows(ExecutionException.class, () -> tp.invokeAny(Arrays.asList(broken, broken)));
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void submitAllSaturationTest() throws Exception {
+        ThreadPool tp = new ThreadPool(1, 11);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        tp.submit(() -> { started.countDown(); gate.await(); return 0; }, ThreadPool.Priority.HIGH);
+        started.await();
+        AtomicInteger ran = new AtomicInteger();
+        List<Callable<Thread>> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            tasks.add(() -> { ran.incrementAndGet(); return Thread.currentThread(); });
+        }
+
+        //the policy applies to bulk submission too, what got in before the rejection is cancelled
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.REJECT);
+        Assertions.assertThrows(RejectedExecutionException.class, () -> tp.submitAll(tasks, ThreadPool.Priority.MED));
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.CALLER_RUNS);
+        List<Future<Thread>> futures = tp.submitAll(tasks, ThreadPool.Priority.MED);
+        assertEquals(9, ran.get());
+        gate.countDown();
+        int inline = 0;
+        for (Future<Thread> f : futures) {
+            inline += (f.get() == Thread.currentThread()) ? 1 : 0;
+        }
+        assertEquals(9, inline);
+        assertEquals(20, ran.get());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void invokeAnyOutcomeTest() throws Exception {
+        ThreadPool tp = new ThreadPool(1, 11);
+        Callable<Integer> erring = () -> {
+            throw new AssertionError();
+        };
+        ExecutionException error = Assertions.assertThrows(ExecutionException.class,
+                () -> tp.invokeAny(Arrays.asList(erring, erring)));
+        assertTrue(error.getCause() instanceof AssertionError);
+
+        //a task dropped before it runs counts as failed too
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        tp.submit(() -> {
+            started.countDown();
+            gate.await();
+            return 0;
+        }, ThreadPool.Priority.HIGH);
+        started.await();
+        FutureTask<Integer> any = new FutureTask<>(() -> tp.invokeAny(Arrays.asList(() -> 3), ThreadPool.Priority.LOW));
+        new Thread(any).start();
+        Thread.sleep(200);
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.DROP_LOWEST);
+        for (int i = 0; i < 11; ++i) {
+            tp.submit(() -> 1, ThreadPool.Priority.HIGH);
+        }
+        ExecutionException dropped = Assertions.assertThrows(ExecutionException.class, () -> any.get(5, TimeUnit.SECONDS));
+        assertTrue(dropped.getCause().getCause() instanceof CancellationException);
+
+        gate.countDown();
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void workerBatchTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(2);
+        tp.setWorkerBatchSize(8);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            tasks.add(() -> 1);
+        }
+        int sum = 0;
+        for (Future<Integer> f : tp.submitAll(tasks, ThreadPool.Priority.MED)) {
+            sum += f.get();
+        }
+        assertEquals(1000, sum);
+
+        tp.setNumberOfThreads(1);
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void manyWaitersTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ThreadPool tp = new ThreadPool(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Integer> f1 = tp.submit(() -> {
+            release.await();
+            return 7;
+        });
+        ConcurrentLinkedQueue<Integer> seen = new ConcurrentLinkedQueue<>();
+        List<Thread> waiters = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            Thread waiter = new Thread(() -> {
+                try {
+                    seen.add(f1.get());
+                } catch (InterruptedException | ExecutionException e) {}
+            });
+            waiters.add(waiter);
+            waiter.start();
+        }
+        assertNull(f1.get(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        for (Thread waiter : waiters) {
+            waiter.join(1000);
+        }
+        assertEquals(5, seen.size());
+        for (Integer value : seen) {
+            assertEquals(7, value);
+        }
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void cancelWakesWaitersTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1);
+        tp.setWorkerBatchSize(4);
+        CountDownLatch release = new CountDownLatch(1);
+        tp.submit(() -> {
+            release.await();
+            return null;
+        });
+        AtomicBoolean ran = new AtomicBoolean();
+        Future<Void> queued = tp.submit(() -> ran.set(true), ThreadPool.Priority.LOW);
+        Thread waiter = new Thread(() -> {
+            try {
+                queued.get();
+            } catch (InterruptedException | ExecutionException e) {}
+        });
+        waiter.start();
+        assertTrue(queued.cancel(false));
+        waiter.join(1000);
+        assertFalse(waiter.isAlive());
+
+        release.countDown();
+        tp.execute(() -> ran.set(false), ThreadPool.Priority.HIGH);
+        tp.shutdown();
+        tp.awaitTermination();
+        assertFalse(ran.get());
+    }
+
+    @Test
+    void submitAsyncTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ThreadPool tp = new ThreadPool(2);
+        CompletableFuture<Integer> chained = tp.submitAsync(() -> 20, ThreadPool.Priority.HIGH)
+                .thenApplyAsync(x -> x + 1)
+                .thenCombine(tp.submitAsync(() -> 2), (a, b) -> a * b);
+        assertEquals(42, chained.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Boolean> onPool = tp.submitAsync(() -> 1)
+                .thenApplyAsync(x -> tp.threadsList.contains(Thread.currentThread()));
+        assertTrue(onPool.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Integer> failed = tp.submitAsync(() -> {
+            throw new IllegalStateException("boom");
+        }, ThreadPool.Priority.LOW);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, failed::get);
+        assertTrue(e.getCause() instanceof IllegalStateException);
+
+        CountDownLatch release = new CountDownLatch(2);
+        CountDownLatch busy = new CountDownLatch(2);
+        tp.submit(() -> { busy.countDown(); release.await(); return null; });
+        tp.submit(() -> { busy.countDown(); release.await(); return null; });
+        busy.await();
+        CompletableFuture<Integer> slow = tp.submitAsync(() -> 1).orTimeout(100, TimeUnit.MILLISECONDS);
+        Assertions.assertThrows(ExecutionException.class, slow::get);
+
+        CompletableFuture<Integer> queued = tp.submitAsync(() -> 1, ThreadPool.Priority.LOW);
+        assertTrue(queued.cancel(false));
+        assertTrue(queued.isCancelled());
+        release.countDown();
+        release.countDown();
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void metricsTest() throws Exception {
+        ThreadPool tp = new ThreadPool(2);
+        Assertions.assertThrows(IllegalStateException.class, tp::metricsSnapshot);
+        tp.setMetricsEnabled(true);
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(tp.submit(() -> {
+                Thread.sleep(10);
+                return 1;
+            }, ThreadPool.Priority.HIGH));
+        }
+        Future<Integer> broken = tp.submit(() -> {
+            throw new IllegalStateException();
+        }, ThreadPool.Priority.LOW);
+        for (Future<Integer> f : futures) {
+            f.get();
+        }
+        broken.get();
+
+        PoolMetrics.Snapshot snapshot = tp.metricsSnapshot();
+        assertEquals(10, snapshot.getCompleted());
+        assertEquals(1, snapshot.getFailed());
+        assertEquals(10, snapshot.getExecution(ThreadPool.Priority.HIGH).getCount());
+        assertTrue(snapshot.getExecution(ThreadPool.Priority.HIGH).percentileNanos(50) >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(10, snapshot.getQueueWait(ThreadPool.Priority.HIGH).getCount());
+        assertEquals(0, snapshot.getQueueWait(ThreadPool.Priority.MED).getCount());
+        assertEquals(2, snapshot.getBusyWorkers() + snapshot.getIdleWorkers());
+
+        javax.management.ObjectName name = tp.registerMBean("il.co.ilrd:type=ThreadPool,name=metricsTest");
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        assertEquals(10L, server.getAttribute(name, "CompletedTasks"));
+        server.unregisterMBean(name);
+
+        tp.setMetricsEnabled(false);
+        assertFalse(tp.isMetricsEnabled());
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void histogramTest() {
+        for (long v : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(LatencyHistogram.highestOf(index) >= v);
+            assertTrue(index == 0 || LatencyHistogram.highestOf(index - 1) < v);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 1000; ++v) {
+            histogram.record(v * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        long p99 = snapshot.percentileNanos(99);
+        assertTrue(p99 >= 990_000 && p99 <= 990_000 * 1.125);
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+    }
+
+    @Test
+    void scalingPolicyTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1);
+        tp.setScalingPolicy(new ScalingPolicy(2, 6, java.time.Duration.ofMillis(300),
+                4, java.time.Duration.ofMillis(50)));
+        assertEquals(2, tp.getNumberOfThreads());
+        Assertions.assertThrows(IllegalStateException.class, () -> tp.setNumberOfThreads(3));
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            futures.add(tp.submit(() -> {
+                Thread.sleep(50);
+                return 1;
+            }, ThreadPool.Priority.LOW));
+        }
+        Thread.sleep(200);
+        assertEquals(6, tp.getNumberOfThreads());
+        for (Future<Integer> f : futures) {
+            assertEquals(1, f.get());
+        }
+
+        Thread.sleep(1000);
+        assertEquals(2, tp.getNumberOfThreads());
+        assertEquals(2, tp.threadsList.size());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void scalingWorkStealingTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.MULTI_LANE, ThreadPool.WorkerMode.WORK_STEALING);
+        tp.setScalingPolicy(new ScalingPolicy(1, 3, java.time.Duration.ofMillis(200),
+                0, java.time.Duration.ofMillis(10)));
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            futures.add(tp.submit(() -> {
+                Thread.sleep(100);
+                return 1;
+            }));
+        }
+        for (Future<Integer> f : futures) {
+            assertEquals(1, f.get());
+        }
+        Thread.sleep(1000);
+        assertEquals(1, tp.getNumberOfThreads());
+
+        tp.setScalingPolicy(null);
+        tp.setNumberOfThreads(2);
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void agingTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.LOCKED_HEAP,
+                ThreadPool.WorkerMode.SHARED_QUEUE, ThreadPool.SchedulingPolicy.AGING);
+        tp.setAgingInterval(java.time.Duration.ofMillis(1));
+        CountDownLatch gate = new CountDownLatch(1);
+        tp.submit(() -> { gate.await(); return null; }, ThreadPool.Priority.HIGH);
+        StringBuffer order = new StringBuffer();
+
+        Future<?> low = tp.submit(() -> { order.append('L'); }, ThreadPool.Priority.LOW);
+        Thread.sleep(20);
+        List<Future<Void>> highs = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            highs.add(tp.submit(() -> { order.append('H'); }, ThreadPool.Priority.HIGH));
+        }
+        gate.countDown();
+        low.get();
+        for (Future<Void> f : highs) {
+            f.get();
+        }
+        assertEquals("LHHHHH", order.toString());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void deadlineTest() throws InterruptedException, ExecutionException {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new ThreadPool(1,
+                ThreadPool.QueueType.MULTI_LANE, ThreadPool.WorkerMode.SHARED_QUEUE, ThreadPool.SchedulingPolicy.DEADLINE));
+        ThreadPool strict = new ThreadPool(1);
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> strict.submit(() -> 1, java.time.Instant.now()));
+        strict.shutdown();
+        strict.awaitTermination();
+
+        ThreadPool tp = new ThreadPool(1, ThreadPool.QueueType.LOCKED_HEAP,
+                ThreadPool.WorkerMode.SHARED_QUEUE, ThreadPool.SchedulingPolicy.DEADLINE);
+        CountDownLatch gate = new CountDownLatch(1);
+        tp.submit(() -> { gate.await(); return null; }, ThreadPool.Priority.HIGH);
+        StringBuffer order = new StringBuffer();
+        java.time.Instant now = java.time.Instant.now();
+
+        List<Future<Object>> futures = new ArrayList<>();
+        futures.add(tp.submit(() -> order.append('3'), ThreadPool.Priority.HIGH, now.plusSeconds(30)));
+        futures.add(tp.submit(() -> order.append('1'), ThreadPool.Priority.LOW, now.plusMillis(50)));
+        //MED defaults to 100ms from now
+        futures.add(tp.submit(() -> order.append('2'), ThreadPool.Priority.MED));
+        gate.countDown();
+        for (Future<Object> f : futures) {
+            f.get();
+        }
+        assertEquals("123", order.toString());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void scheduleTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(2);
+        long start = System.nanoTime();
+        ScheduledFuture<Integer> delayed = tp.schedule(() -> 7, 50, TimeUnit.MILLISECONDS, ThreadPool.Priority.HIGH);
+        assertTrue(delayed.getDelay(TimeUnit.MILLISECONDS) > 0);
+        assertEquals(7, delayed.get());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        AtomicBoolean ran = new AtomicBoolean(false);
+        ScheduledFuture<?> cancelled = tp.schedule(() -> ran.set(true), 50, TimeUnit.MILLISECONDS, ThreadPool.Priority.LOW);
+        assertTrue(cancelled.cancel(false));
+        Thread.sleep(100);
+        assertFalse(ran.get());
+        assertTrue(cancelled.isCancelled());
+
+        //spread over more than one turn of the wheel, every other one cancelled
+        java.util.concurrent.atomic.AtomicInteger fired = new java.util.concurrent.atomic.AtomicInteger();
+        List<ScheduledFuture<?>> timers = new ArrayList<>();
+        for (int i = 0; i < 10_000; ++i) {
+            timers.add(tp.schedule(fired::incrementAndGet, 100 + i % 700, TimeUnit.MILLISECONDS, ThreadPool.Priority.MED));
+        }
+        for (int i = 0; i < timers.size(); i += 2) {
+            timers.get(i).cancel(false);
+        }
+        for (int i = 1; i < timers.size(); i += 2) {
+            timers.get(i).get();
+        }
+        assertEquals(5_000, fired.get());
+
+        ScheduledFuture<?> never = tp.schedule(() -> 1, 1, TimeUnit.HOURS);
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(never.isCancelled());
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> tp.schedule(() -> 1, 1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void periodicTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(2);
+        java.util.concurrent.atomic.AtomicInteger rate = new java.util.concurrent.atomic.AtomicInteger();
+        ScheduledFuture<?> fixedRate = tp.scheduleAtFixedRate(rate::incrementAndGet, 0, 10, TimeUnit.MILLISECONDS);
+        Thread.sleep(200);
+        assertTrue(fixedRate.cancel(false));
+        int runs = rate.get();
+        assertTrue(runs >= 5);
+        Thread.sleep(50);
+        assertTrue(rate.get() <= runs + 1);
+        assertTrue(fixedRate.isCancelled());
+        assertNull(fixedRate.get());
+
+        //a failed run ends the schedule
+        java.util.concurrent.atomic.AtomicInteger delay = new java.util.concurrent.atomic.AtomicInteger();
+        ScheduledFuture<?> fixedDelay = tp.scheduleWithFixedDelay(() -> {
+            if (delay.incrementAndGet() == 3)
+                throw new IllegalStateException();
+        }, 0, 5, TimeUnit.MILLISECONDS, ThreadPool.Priority.LOW);
+        assertNull(fixedDelay.get());
+        assertTrue(fixedDelay.isDone());
+        assertFalse(fixedDelay.isCancelled());
+        assertEquals(3, delay.get());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void runStateGateTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(3);
+        tp.pause();
+        //no sentinel tasks, pausing takes no queue capacity
+        assertEquals(0, tp.wpq.size());
+        Future<Integer> paused = tp.submit(() -> 1, ThreadPool.Priority.HIGH);
+        Thread.sleep(100);
+        assertFalse(paused.isDone());
+        tp.resume();
+        assertEquals(1, paused.get());
+
+        //idle workers leave right away, nothing is queued for them
+        tp.setNumberOfThreads(1);
+        for (int i = 0; i < 40 && tp.threadsList.size() > 1; ++i) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, tp.threadsList.size());
+        assertEquals(0, tp.wpq.size());
+        tp.setNumberOfThreads(2);
+        assertEquals(2, tp.threadsList.size());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.isShutdown());
+    }
+
+    @Test
+    void shutdownNowTest() throws InterruptedException {
+        ThreadPool tp = new ThreadPool(1);
+        CountDownLatch running = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        tp.submit(() -> {
+            running.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        }, ThreadPool.Priority.HIGH);
+        running.await();
+        List<Future<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            queued.add(tp.submit(() -> 1, ThreadPool.Priority.LOW));
+        }
+        queued.get(0).cancel(false);
+
+        List<Runnable> unstarted = tp.shutdownNow();
+        assertEquals(4, unstarted.size());
+        tp.awaitTermination();
+        assertTrue(interrupted.get());
+        assertTrue(tp.wpq.isEmpty());
+        assertFalse(queued.get(1).isDone());
+        Assertions.assertThrows(RejectedExecutionException.class, () -> tp.submit(() -> 1));
+
+        unstarted.get(0).run();
+        assertTrue(unstarted.get(0) instanceof Future);
+        assertTrue(((Future<?>) unstarted.get(0)).isDone());
+    }
+
+    @Test
+    void saturationTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, 20);
+        tp.setMetricsEnabled(true);
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        tp.submit(() -> { running.countDown(); gate.await(); return null; }, ThreadPool.Priority.HIGH);
+        running.await();
+
+        List<Future<Integer>> low = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            Future<Integer> queued = tp.trySubmit(() -> 1, ThreadPool.Priority.LOW);
+            assertTrue(queued != null);
+            low.add(queued);
+        }
+        assertNull(tp.trySubmit(() -> 1, ThreadPool.Priority.HIGH));
+        long start = System.nanoTime();
+        assertNull(tp.submit(() -> 1, ThreadPool.Priority.HIGH, 50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.REJECT);
+        Assertions.assertThrows(RejectedExecutionException.class, () -> tp.submit(() -> 1, ThreadPool.Priority.HIGH));
+
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.CALLER_RUNS);
+        Future<Thread> inline = tp.submit(Thread::currentThread, ThreadPool.Priority.MED);
+        assertTrue(inline.isDone());
+        assertEquals(Thread.currentThread(), inline.get());
+
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.DROP_LOWEST);
+        Future<Integer> high = tp.submit(() -> 2, ThreadPool.Priority.HIGH);
+        int dropped = 0;
+        for (Future<Integer> f : low) {
+            dropped += f.isCancelled() ? 1 : 0;
+        }
+        assertEquals(1, dropped);
+        //nothing queued is lower than LOW
+        Assertions.assertThrows(RejectedExecutionException.class, () -> tp.submit(() -> 1, ThreadPool.Priority.LOW));
+        assertEquals(3, tp.metricsSnapshot().getRejected());
+
+        gate.countDown();
+        assertEquals(2, high.get());
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void idleStrategyTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(3);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new IdleStrategy(-1, 0));
+        tp.setIdleStrategy(new IdleStrategy(1000, 10));
+        //one at a time, each task has to wake or find a worker
+        for (int i = 0; i < 2000; ++i) {
+            assertEquals(i, tp.submit(() -> 0, ThreadPool.Priority.MED).get() + i);
+        }
+        //several producers, nobody may park past a queued task
+        List<Thread> producers = new ArrayList<>();
+        List<Future<Integer>> futures = new CopyOnWriteArrayList<>();
+        for (int p = 0; p < 4; ++p) {
+            producers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500; ++i) {
+                        futures.add(tp.submit(() -> 1, ThreadPool.Priority.LOW));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        int sum = 0;
+        for (Future<Integer> f : futures) {
+            sum += f.get();
+        }
+        assertEquals(2000, sum);
+
+        //workers parked by one strategy pick up work under the next
+        tp.setIdleStrategy(IdleStrategy.PARK);
+        assertEquals(3, tp.submit(() -> 3, ThreadPool.Priority.HIGH).get());
+        tp.setIdleStrategy(new IdleStrategy(0, 5));
+        tp.pause();
+        Future<Integer> paused = tp.submit(() -> 4, ThreadPool.Priority.HIGH);
+        Thread.sleep(20);
+        assertFalse(paused.isDone());
+        tp.resume();
+        assertEquals(4, paused.get());
+
+        tp.shutdown();
+        tp.awaitTermination();
+        assertTrue(tp.wpq.isEmpty());
+    }
+
+    @Test
+    void keyedLaneTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(4, 64);
+        int keys = 8;
+        int perKey = 300;
+        List<List<Integer>> ran = new ArrayList<>();
+        AtomicInteger[] running = new AtomicInteger[keys];
+        AtomicBoolean overlapped = new AtomicBoolean(false);
+        for (int k = 0; k < keys; ++k) {
+            ran.add(new ArrayList<>());
+            running[k] = new AtomicInteger();
+        }
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < perKey; ++i) {
+            for (int k = 0; k < keys; ++k) {
+                int key = k;
+                int seq = i;
+                ThreadPool.Priority priority = ThreadPool.Priority.values()[(i + k) % 3];
+                futures.add(tp.submit("account-" + key, () -> {
+                    if (running[key].incrementAndGet() != 1) {
+                        overlapped.set(true);
+                    }
+                    ran.get(key).add(seq);
+                    running[key].decrementAndGet();
+                    if (seq == 7)
+                        throw new IllegalStateException("a failure does not stop the lane");
+                    return seq;
+                }, priority));
+            }
+        }
+        //a task still waiting in its lane is skipped
+        Future<Integer> skipped = futures.get(futures.size() - 1);
+        boolean cancelled = skipped.cancel(false);
+        for (Future<Integer> f : futures) {
+            f.get();
+        }
+        assertFalse(overlapped.get());
+        for (int k = 0; k < keys; ++k) {
+            List<Integer> order = ran.get(k);
+            for (int i = 1; i < order.size(); ++i) {
+                assertTrue(order.get(i - 1) < order.get(i));
+            }
+            int expected = (cancelled && k == keys - 1) ? perKey - 1 : perKey;
+            assertEquals(expected, order.size());
+        }
+        //empty lanes are gone, the last one right after its task completes
+        for (int i = 0; i < 40 && !tp.keyLanes.isEmpty(); ++i) {
+            Thread.sleep(50);
+        }
+        assertTrue(tp.keyLanes.isEmpty());
+
+        tp.shutdown();
+        Assertions.assertThrows(RejectedExecutionException.class, () -> tp.submit("late", () -> 1, ThreadPool.Priority.LOW));
+        tp.awaitTermination();
+    }
+
+    @Test
+    void joinTest() throws InterruptedException, ExecutionException, TimeoutException {
+        //every worker waits on subtasks, get() would deadlock both of them
+        for (ThreadPool.WorkerMode mode : Arrays.asList(ThreadPool.WorkerMode.SHARED_QUEUE, ThreadPool.WorkerMode.WORK_STEALING)) {
+            ThreadPool tp = new ThreadPool(2, ThreadPool.QueueType.LOCKED_HEAP, mode, ThreadPool.SchedulingPolicy.STRICT, 4096);
+            assertEquals(Long.valueOf(999L * 1000 / 2), tp.join(tp.submit(() -> sumOf(tp, 0, 1000), ThreadPool.Priority.MED)));
+            tp.shutdown();
+            tp.awaitTermination();
+        }
+
+        ThreadPool tp = new ThreadPool(1);
+        Future<Integer> failing = tp.submit(() -> { throw new IllegalStateException("boom"); });
+        CompletionException failed = Assertions.assertThrows(CompletionException.class, () -> tp.join(failing));
+        assertTrue(failed.getCause() instanceof IllegalStateException);
+
+        CountDownLatch gate = new CountDownLatch(1);
+        Future<Integer> blocked = tp.submit(() -> { gate.await(); return 1; });
+        Future<Integer> queued = tp.submit(() -> 2);
+        Assertions.assertThrows(TimeoutException.class, () -> tp.join(queued, 20, TimeUnit.MILLISECONDS));
+        queued.cancel(false);
+        Assertions.assertThrows(CancellationException.class, () -> tp.join(queued));
+        gate.countDown();
+        assertEquals(1, tp.join(blocked, 1, TimeUnit.SECONDS));
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    private static long sumOf(ThreadPool tp, long from, long to) throws InterruptedException {
+        if (to - from <= 10) {
+            long sum = 0;
+            for (long i = from; i < to; ++i) {
+                sum += i;
+            }
+            return sum;
+        }
+        long mid = (from + to) >>> 1;
+        Future<Long> left = tp.submit(() -> sumOf(tp, from, mid), ThreadPool.Priority.MED);
+        Future<Long> right = tp.submit(() -> sumOf(tp, mid, to), ThreadPool.Priority.MED);
+        return tp.join(left) + tp.join(right);
+    }
+
+    @Test
+    void taskGraphTest() throws InterruptedException, ExecutionException {
+        //one worker, nobody blocks waiting for a dependency
+        ThreadPool tp = new ThreadPool(1, 64);
+        TaskGraph graph = new TaskGraph();
+        List<String> ran = new CopyOnWriteArrayList<>();
+        TaskGraph.Node<Integer> a = graph.add(() -> { ran.add("a"); return 1; }, ThreadPool.Priority.LOW);
+        TaskGraph.Node<Integer> b = graph.add(() -> { ran.add("b"); return a.future().get() + 1; }, ThreadPool.Priority.LOW, a);
+        TaskGraph.Node<Integer> c = graph.add(() -> { ran.add("c"); return a.future().get() + 2; }, ThreadPool.Priority.HIGH, a);
+        TaskGraph.Node<Integer> d = graph.add(() -> { ran.add("d"); return b.future().get() * c.future().get(); },
+                ThreadPool.Priority.MED, b, c);
+        Assertions.assertThrows(IllegalStateException.class, d::future);
+        assertNull(tp.submit(graph).join());
+        assertEquals(6, d.future().get());
+        assertEquals("a", ran.get(0));
+        assertEquals("c", ran.get(1)); //HIGH first once both are ready
+        assertEquals("d", ran.get(3));
+        Assertions.assertThrows(IllegalStateException.class, () -> tp.submit(graph));
+
+        //a failure fails everything after it, the other branch still runs
+        TaskGraph failing = new TaskGraph();
+        TaskGraph.Node<Integer> boom = failing.add(() -> { throw new IllegalStateException("boom"); }, ThreadPool.Priority.MED);
+        TaskGraph.Node<Integer> after = failing.add(() -> 1, ThreadPool.Priority.MED, boom);
+        TaskGraph.Node<Integer> last = failing.add(() -> 2, ThreadPool.Priority.MED, after);
+        TaskGraph.Node<Integer> aside = failing.add(() -> 3, ThreadPool.Priority.MED);
+        CompletableFuture<Void> run = tp.submit(failing);
+        CompletionException failed = Assertions.assertThrows(CompletionException.class, run::join);
+        assertTrue(failed.getCause() instanceof IllegalStateException);
+        assertEquals(3, tp.join(aside.future()));
+        CompletionException propagated = Assertions.assertThrows(CompletionException.class, () -> tp.join(last.future()));
+        assertTrue(propagated.getCause() instanceof IllegalStateException);
+
+        //the long chain outranks the side work hanging off its start
+        TaskGraph paths = new TaskGraph();
+        paths.setCriticalPathFirst(true);
+        TaskGraph.Node<Integer> root = paths.add(() -> 0, ThreadPool.Priority.LOW);
+        TaskGraph.Node<Integer> side = paths.add(() -> 0, ThreadPool.Priority.HIGH, root);
+        TaskGraph.Node<Integer> chain = root;
+        for (int i = 0; i < 5; ++i) {
+            chain = paths.add(() -> 0, ThreadPool.Priority.LOW, chain);
+        }
+        tp.submit(paths).join();
+        assertEquals(ThreadPool.Priority.HIGH, root.getEffectivePriority());
+        assertEquals(ThreadPool.Priority.LOW, side.getEffectivePriority());
+        assertEquals(ThreadPool.Priority.LOW, chain.getEffectivePriority());
+        assertEquals(ThreadPool.Priority.HIGH, side.getPriority());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @TempDir
+    Path spillDir;
+
+    @Test
+    void spillTest() throws Exception {
+        Path dir = spillDir.resolve("spill");
+        ThreadPool tp = new ThreadPool(1, 64);
+        //the queue would fill up before anything spilled
+        Assertions.assertThrows(IllegalArgumentException.class, () -> tp.enableSpill(dir, 65, 1, false));
+        assertEquals(0, tp.enableSpill(dir, 4, 1, false));
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch running = new CountDownLatch(1);
+        tp.submit(() -> { running.countDown(); gate.await(); return 0; }, ThreadPool.Priority.HIGH);
+        running.await();
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            futures.add(tp.submit(new SpilledTask(i), ThreadPool.Priority.values()[i % 3]));
+        }
+        //the rest waits in the file, not in wpq
+        assertTrue(tp.wpq.size() <= 4);
+        assertTrue(Files.list(dir).count() > 0);
+        Future<Integer> cancelled = futures.get(150);
+        assertTrue(cancelled.cancel(false));
+        gate.countDown();
+        for (int i = 0; i < futures.size(); ++i) {
+            if (i != 150) {
+                assertEquals(i, futures.get(i).get());
+            }
+        }
+        assertTrue(cancelled.isCancelled());
+        //a pool shut down with nothing left in the file deletes it
+        tp.shutdown();
+        tp.awaitTermination();
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+
+        //a pool that never got to its spilled tasks leaves them for the next one
+        Path crashDir = spillDir.resolve("crash");
+        ThreadPool crashed = new ThreadPool(1, 64);
+        crashed.enableSpill(crashDir, 2, 1, false);
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        crashed.submit(() -> { blocked.countDown(); stuck.await(); return 0; }, ThreadPool.Priority.HIGH);
+        blocked.await();
+        int before = SpilledTask.RAN.get();
+        for (int i = 0; i < 20; ++i) {
+            crashed.submit(new SpilledTask(i), ThreadPool.Priority.MED);
+        }
+        //two wait in wpq, the rest in the file
+        assertEquals(2, crashed.wpq.size());
+        crashed.abandonSpill();
+        ThreadPool restarted = new ThreadPool(2, 64);
+        assertEquals(18, restarted.enableSpill(crashDir, 2, 1, true));
+        restarted.shutdown();
+        restarted.awaitTermination();
+        assertEquals(before + 18, SpilledTask.RAN.get());
+        try (Stream<Path> files = Files.list(crashDir)) {
+            assertEquals(0, files.count());
+        }
+
+        stuck.countDown();
+        crashed.shutdownNow();
+        crashed.awaitTermination();
+    }
+
+    @Test
+    void cancellationTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, 64);
+        tp.setMetricsEnabled(true);
+        CountDownLatch sleeping = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        Future<Integer> sleeper = tp.submit(() -> {
+            sleeping.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw e;
+            }
+            return 0;
+        }, ThreadPool.Priority.MED);
+        Future<Boolean> next = tp.submit(() -> Thread.currentThread().isInterrupted(), ThreadPool.Priority.MED);
+        sleeping.await();
+        assertFalse(sleeper.cancel(false));
+        assertTrue(sleeper.cancel(true));
+        assertTrue(sleeper.isCancelled());
+        assertTrue(sleeper.isDone());
+        assertNull(sleeper.get());
+        //the interrupt is for the cancelled task only
+        assertFalse(next.get());
+        assertTrue(interrupted.get());
+        //cancelled while it ran is cancelled, not failed as well
+        PoolMetrics.Snapshot snapshot = tp.metricsSnapshot();
+        assertEquals(1, snapshot.getCancelled());
+        assertEquals(0, snapshot.getFailed());
+        assertEquals(1, snapshot.getCompleted());
+        assertEquals(2, snapshot.getExecution(ThreadPool.Priority.MED).getCount());
+
+        //overruns its execution timeout, cancelled and reported
+        CountDownLatch overrun = new CountDownLatch(1);
+        CountDownLatch stuck = new CountDownLatch(1);
+        tp.setStuckTaskHandler(Duration.ofMillis(40), new StuckTaskHandler() {
+            @Override
+            public void onStuck(Future<?> task, Thread worker, Duration running) {
+                assertTrue(running.toMillis() >= 40);
+                stuck.countDown();
+            }
+
+            @Override
+            public void onOverrun(Future<?> task, Duration timeout) {
+                overrun.countDown();
+            }
+        });
+        Future<Integer> slow = tp.submit(() -> { Thread.sleep(10_000); return 0; }, ThreadPool.Priority.MED, Duration.ofMillis(50));
+        assertNull(slow.get());
+        assertTrue(slow.isCancelled());
+        assertTrue(overrun.await(1, TimeUnit.SECONDS));
+        assertEquals(1, tp.submit(() -> 1, ThreadPool.Priority.MED, Duration.ofMillis(50)).get());
+
+        //ignores interrupts, so it is only reported
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(150);
+        Future<Integer> busy = tp.submit(() -> {
+            while (System.nanoTime() - until < 0) {
+                Thread.onSpinWait();
+            }
+            return 2;
+        }, ThreadPool.Priority.MED);
+        assertTrue(stuck.await(1, TimeUnit.SECONDS));
+        assertEquals(2, busy.get());
+        tp.setStuckTaskHandler(null, null);
+        snapshot = tp.metricsSnapshot();
+        assertEquals(2, snapshot.getCancelled());
+        assertEquals(0, snapshot.getFailed());
+        assertEquals(3, snapshot.getCompleted());
+
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void taskGroupTest() throws InterruptedException, ExecutionException {
+        ThreadPool tp = new ThreadPool(1, 256);
+        CountDownLatch gate = new CountDownLatch(1);
+        tp.submit(() -> { gate.await(); return 0; }, ThreadPool.Priority.HIGH);
+
+        //the noisy tenant queued first, the others still get their share of MED
+        TaskGroup noisy = new TaskGroup("noisy", 1);
+        TaskGroup quiet = new TaskGroup("quiet", 1);
+        TaskGroup heavy = new TaskGroup("heavy", 3);
+        List<String> ran = new CopyOnWriteArrayList<>();
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int i = 0; i < 30; ++i) {
+            futures.add(tp.submit(noisy, () -> { ran.add("noisy"); return 1; }, ThreadPool.Priority.MED));
+        }
+        for (int i = 0; i < 30; ++i) {
+            futures.add(tp.submit(heavy, () -> { ran.add("heavy"); return 1; }, ThreadPool.Priority.MED));
+        }
+        for (int i = 0; i < 5; ++i) {
+            futures.add(tp.submit(quiet, () -> { ran.add("quiet"); return 1; }, ThreadPool.Priority.MED));
+        }
+        Future<Integer> high = tp.submit(noisy, () -> { ran.add("high"); return 1; }, ThreadPool.Priority.HIGH);
+        gate.countDown();
+        for (Future<Integer> f : futures) {
+            assertEquals(1, f.get());
+        }
+        high.get();
+        assertEquals("high", ran.get(0));
+        List<String> first = ran.subList(1, 26);
+        assertEquals(5, first.stream().filter("quiet"::equals).count());
+        long heavyRan = first.stream().filter("heavy"::equals).count();
+        long noisyRan = first.stream().filter("noisy"::equals).count();
+        assertTrue(heavyRan >= 2 * noisyRan);
+
+        //never more than two of the capped group at once, the rest wait in the group
+        ThreadPool wide = new ThreadPool(4, 256);
+        TaskGroup capped = new TaskGroup("capped", 1, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<Integer>> cappedFutures = new ArrayList<>();
+        for (int i = 0; i < 12; ++i) {
+            cappedFutures.add(wide.submit(capped, () -> {
+                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                Thread.sleep(2);
+                running.decrementAndGet();
+                return 1;
+            }, ThreadPool.Priority.MED));
+        }
+        assertEquals(10, capped.waitingCount());
+        assertTrue(cappedFutures.get(11).cancel(false));
+        assertEquals(9, capped.waitingCount());
+        release.countDown();
+        for (int i = 0; i < 11; ++i) {
+            assertEquals(1, cappedFutures.get(i).get());
+        }
+        assertEquals(2, most.get());
+        assertEquals(0, capped.waitingCount());
+        //the slots all came back
+        assertEquals(2, wide.submit(capped, () -> running.get() + 2, ThreadPool.Priority.LOW).get());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new TaskGroup("bad", 0));
+        wide.shutdown();
+        wide.awaitTermination();
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void dedupTest() throws InterruptedException, ExecutionException {
+        for (ThreadPool.QueueType type : ThreadPool.QueueType.values()) {
+            ThreadPool tp = new ThreadPool(1, type);
+            CountDownLatch gate = new CountDownLatch(1);
+            tp.submit(() -> { gate.await(); return 0; }, ThreadPool.Priority.HIGH);
+
+            AtomicInteger loads = new AtomicInteger();
+            List<String> ran = new CopyOnWriteArrayList<>();
+            Callable<Integer> load = () -> { ran.add("load"); return loads.incrementAndGet(); };
+            Future<Integer> first = tp.submitDedup("key", load, ThreadPool.Priority.LOW);
+            Future<Integer> other = tp.submit(() -> { ran.add("other"); return 0; }, ThreadPool.Priority.MED);
+            assertTrue(first == tp.submitDedup("key", load, ThreadPool.Priority.LOW));
+            //asked for at HIGH, so it no longer waits behind the MED task
+            assertTrue(first == tp.submitDedup("key", load, ThreadPool.Priority.HIGH));
+            gate.countDown();
+            assertEquals(1, first.get());
+            other.get();
+            assertEquals("load", ran.get(0));
+            assertEquals(1, loads.get());
+
+            //done, the next caller loads again
+            for (int i = 0; i < 100 && !tp.inFlight.isEmpty(); ++i) {
+                Thread.sleep(5);
+            }
+            assertTrue(tp.inFlight.isEmpty());
+            Future<Integer> again = tp.submitDedup("key", load, ThreadPool.Priority.MED);
+            assertTrue(again != first);
+            assertEquals(2, again.get());
+
+            tp.shutdown();
+            tp.awaitTermination();
+        }
+    }
+
+    @Test
+    void rateLimitTest() throws InterruptedException, ExecutionException, TimeoutException {
+        ThreadPool tp = new ThreadPool(4, 256);
+        tp.setRateLimit(ThreadPool.Priority.LOW, new RateLimit(50, 1));
+        assertEquals(50.0, tp.getRateLimit(ThreadPool.Priority.LOW).getPermitsPerSecond());
+        List<Long> starts = new CopyOnWriteArrayList<>();
+        List<Future<Integer>> lows = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            lows.add(tp.submit(() -> { starts.add(System.nanoTime()); return 1; }, ThreadPool.Priority.LOW));
+        }
+        //HIGH is not held up by the LOW tasks waiting for their turn
+        List<Future<Integer>> highs = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            highs.add(tp.submit(() -> 2, ThreadPool.Priority.HIGH));
+        }
+        for (Future<Integer> f : highs) {
+            assertEquals(2, f.get());
+        }
+        assertFalse(lows.get(9).isDone());
+        for (Future<Integer> f : lows) {
+            assertEquals(1, f.get());
+        }
+        long first = starts.stream().min(Long::compare).get();
+        long last = starts.stream().max(Long::compare).get();
+        assertTrue(last - first >= TimeUnit.MILLISECONDS.toNanos(150));
+
+        //two MED at a time, the workers they would have held are free for the rest
+        tp.setRateLimit(ThreadPool.Priority.MED, new RateLimit(0, 1, 2));
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        List<Future<Integer>> meds = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            meds.add(tp.submit(() -> {
+                most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                release.await();
+                running.decrementAndGet();
+                return 3;
+            }, ThreadPool.Priority.MED));
+        }
+        assertEquals(7, tp.submit(() -> 7, ThreadPool.Priority.HIGH).get(5, TimeUnit.SECONDS));
+        while (running.get() < 2) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        for (Future<Integer> f : meds) {
+            assertEquals(3, f.get());
+        }
+        assertEquals(2, most.get());
+
+        //shutdown lifts the limits, nothing is left waiting for a token
+        tp.setRateLimit(ThreadPool.Priority.LOW, new RateLimit(0.5, 1));
+        List<Future<Integer>> slow = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            slow.add(tp.submit(() -> 4, ThreadPool.Priority.LOW));
+        }
+        tp.shutdown();
+        long before = System.nanoTime();
+        tp.awaitTermination();
+        assertTrue(System.nanoTime() - before < TimeUnit.SECONDS.toNanos(1));
+        for (Future<Integer> f : slow) {
+            assertEquals(4, f.get());
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new RateLimit(0, 1, 0));
+
+        //tasks waiting for a token still take up room in the queue, so the SaturationPolicy still applies
+        ThreadPool bounded = new ThreadPool(2, 16);
+        bounded.setSaturationPolicy(ThreadPool.SaturationPolicy.REJECT);
+        bounded.setRateLimit(ThreadPool.Priority.LOW, new RateLimit(1, 1));
+        int accepted = 0;
+        int rejected = 0;
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(300);
+        while (System.nanoTime() < until) {
+            try {
+                bounded.submit(() -> 5, ThreadPool.Priority.LOW);
+                ++accepted;
+            } catch (RejectedExecutionException full) {
+                ++rejected;
+            }
+        }
+        assertTrue(accepted < 32);
+        assertTrue(rejected > 0);
+        bounded.shutdownNow();
+    }
+
+    @Test
+    void rateLimitBlockTest() throws InterruptedException, ExecutionException {
+        //a slow rate with a huge burst: the whole burst starts at once, it does not overflow into never
+        long now = System.nanoTime();
+        Throttle huge = new Throttle(new RateLimit(0.001, 10_000_000), now);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(0, huge.tryStart(now));
+        }
+        assertTrue(huge.startable(now) > 0);
+        assertEquals(0, huge.nanosUntilToken(now));
+        Throttle slow = new Throttle(new RateLimit(1e-30, 1), now);
+        assertEquals(0, slow.tryStart(now));
+        assertTrue(slow.tryStart(now) > 0);
+
+        //BLOCK waits for the deferred tasks to be let go, not for a poll
+        ThreadPool tp = new ThreadPool(2, 11);
+        tp.setRateLimit(ThreadPool.Priority.LOW, new RateLimit(200, 1));
+        List<Future<Integer>> lows = new ArrayList<>();
+        for (int i = 0; i < 40; ++i) {
+            lows.add(tp.submit(() -> 1, ThreadPool.Priority.LOW));
+        }
+        for (Future<Integer> f : lows) {
+            assertEquals(1, f.get());
+        }
+        tp.shutdown();
+        tp.awaitTermination();
+    }
+
+    @Test
+    void flightRecorderTest() throws Exception {
+        Path file = Files.createTempFile("pool", ".jfr");
+        ThreadPool tp = new ThreadPool(1, 16);
+        tp.setSaturationPolicy(ThreadPool.SaturationPolicy.REJECT);
+        List<Future<Integer>> queued = new ArrayList<>();
+        try (jdk.jfr.Recording recording = new jdk.jfr.Recording()) {
+            for (String event : Arrays.asList("TaskEnqueued", "TaskDequeued", "TaskExecution", "TaskCancelled", "TaskRejected")) {
+                recording.enable("il.co.ilrd.threadpool." + event);
+            }
+            recording.start();
+            CountDownLatch gate = new CountDownLatch(1);
+            CountDownLatch running = new CountDownLatch(1);
+            tp.submit(() -> { running.countDown(); gate.await(); return 0; }, ThreadPool.Priority.HIGH);
+            running.await();
+            try {
+                while (true) {
+                    queued.add(tp.submit(() -> 1, ThreadPool.Priority.LOW));
+                }
+            } catch (RejectedExecutionException full) {
+                //one Task Rejected
+            }
+            assertTrue(queued.get(0).cancel(false));
+            gate.countDown();
+            for (Future<Integer> f : queued.subList(1, queued.size())) {
+                assertEquals(1, f.get());
+            }
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, List<jdk.jfr.consumer.RecordedEvent>> byType = new HashMap<>();
+        for (jdk.jfr.consumer.RecordedEvent event : jdk.jfr.consumer.RecordingFile.readAllEvents(file)) {
+            byType.computeIfAbsent(event.getEventType().getName(), k -> new ArrayList<>()).add(event);
+        }
+        int ran = events(byType, "TaskExecution").size();
+        assertEquals(queued.size(), ran); //the gate task and all but the cancelled one
+        assertEquals(queued.size() + 2, events(byType, "TaskEnqueued").size());
+        assertEquals(ran, events(byType, "TaskDequeued").size());
+        assertEquals(1, events(byType, "TaskCancelled").size());
+        jdk.jfr.consumer.RecordedEvent rejected = events(byType, "TaskRejected").get(0);
+        assertEquals("queue full", rejected.getString("reason"));
+        assertEquals("LOW", rejected.getString("priority"));
+        for (jdk.jfr.consumer.RecordedEvent execution : events(byType, "TaskExecution")) {
+            assertEquals("NORMAL", execution.getString("outcome"));
+            assertTrue(execution.getString("worker").length() > 0);
+        }
+        //the LOW tasks waited behind the gate
+        assertTrue(events(byType, "TaskDequeued").stream()
+                .anyMatch(e -> !e.getDuration("waitTime").isZero() && "LOW".equals(e.getString("priority"))));
+
+        tp.shutdown();
+        tp.awaitTermination();
+        Files.deleteIfExists(file);
+    }
+
+    private static List<jdk.jfr.consumer.RecordedEvent> events(Map<String, List<jdk.jfr.consumer.RecordedEvent>> byType, String event) {
+        return byType.getOrDefault("il.co.ilrd.threadpool." + event, new ArrayList<>());
+    }
+
+    private static class SpilledTask implements Callable<Integer>, java.io.Serializable {
+        static final AtomicInteger RAN = new AtomicInteger();
+        private final int n;
+
+        SpilledTask(int n) {
+            this.n = n;
+        }
+
+        @Override
+        public Integer call() {
+            RAN.incrementAndGet();
+            return n;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package il.co.ilrd.threadpool;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WaitableQueueTest {
+
+    @Test
+    void laneOrderTest() throws InterruptedException {
+        WaitableLaneQueue<Integer> q = new WaitableLaneQueue<>(3, i -> i / 10, 20);
+        q.enqueue(1);
+        q.enqueue(21);
+        q.enqueue(11);
+        q.enqueue(22);
+        q.enqueue(2);
+        assertEquals(5, q.size());
+
+        assertEquals(21, q.dequeue());
+        assertEquals(22, q.dequeue());
+        assertEquals(11, q.dequeue());
+        assertEquals(1, q.dequeue());
+        assertEquals(2, q.dequeue());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    void laneRemoveTest() throws InterruptedException {
+        WaitableLaneQueue<Integer> q = new WaitableLaneQueue<>(3, i -> i / 10, 20);
+        assertFalse(q.remove(5));
+        q.enqueue(5);
+        q.enqueue(15);
+        assertFalse(q.remove(25));
+        assertTrue(q.remove(5));
+        assertEquals(1, q.size());
+        assertEquals(15, q.dequeue());
+    }
+
+    @Test
+    void laneBlocksWhenFull() throws InterruptedException {
+        WaitableLaneQueue<Integer> q = new WaitableLaneQueue<>(1, i -> 0, 11);
+        for (int i = 0; i < 11; ++i) {
+            q.enqueue(i);
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                q.enqueue(42);
+            } catch (InterruptedException e) {}
+        });
+        producer.start();
+        producer.join(500);
+        assertTrue(producer.isAlive());
+
+        assertEquals(0, q.dequeue());
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(11, q.size());
+    }
+
+    @Test
+    void manyProducersTest() throws InterruptedException, ExecutionException {
+        WaitableLaneQueue<Long> q = new WaitableLaneQueue<>(3, l -> (int) (l % 3), 64);
+        int producers = 16;
+        int perProducer = 10_000;
+        ExecutorService exec = Executors.newFixedThreadPool(producers + 4);
+        AtomicLong sum = new AtomicLong();
+        for (int p = 0; p < producers; ++p) {
+            exec.submit(() -> {
+                for (long i = 1; i <= perProducer; ++i) {
+                    q.enqueue(i);
+                }
+                return null;
+            });
+        }
+        Future<?>[] consumers = new Future[4];
+        for (int c = 0; c < consumers.length; ++c) {
+            consumers[c] = exec.submit(() -> {
+                for (int i = 0; i < producers * perProducer / 4; ++i) {
+                    sum.addAndGet(q.dequeue());
+                }
+                return null;
+            });
+        }
+        for (Future<?> f : consumers) {
+            f.get();
+        }
+        exec.shutdown();
+        assertEquals(producers * (long) perProducer * (perProducer + 1) / 2, sum.get());
+        assertTrue(q.isEmpty());
+    }
+
+    @Test
+    void bulkTest() throws InterruptedException {
+        List<WaitableQueue<Integer>> queues = Arrays.asList(
+                new WaitablePriorityQueueSem<>((a, b) -> b - a, 20),
+                new WaitableLaneQueue<>(10, i -> i, 20));
+        for (WaitableQueue<Integer> q : queues) {
+            q.enqueueAll(Arrays.asList(3, 1, 4, 1, 5, 9, 2, 6));
+            assertEquals(8, q.size());
+
+            List<Integer> out = new ArrayList<>();
+            assertEquals(3, q.drainTo(out, 3));
+            assertEquals(Arrays.asList(9, 6, 5), out);
+
+            out.clear();
+            assertEquals(5, q.dequeueUpTo(out, 10));
+            assertEquals(Arrays.asList(4, 3, 2, 1, 1), out);
+            assertEquals(0, q.drainTo(out, 10));
+            assertTrue(q.isEmpty());
+        }
+    }
+
+    @Test
+    void enqueueAllBiggerThanCapacity() throws InterruptedException {
+        WaitablePriorityQueueSem<Integer> q = new WaitablePriorityQueueSem<>(11);
+        List<Integer> many = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            many.add(i);
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                q.enqueueAll(many);
+            } catch (InterruptedException e) {}
+        });
+        producer.start();
+
+        List<Integer> out = new ArrayList<>();
+        while (out.size() < 100) {
+            q.dequeueUpTo(out, 7);
+        }
+        producer.join(1000);
+        assertFalse(producer.isAlive());
+        assertEquals(100, out.size());
+    }
+
+    private static class Slotted implements IndexedHeap.Slot, Comparable<Slotted> {
+        private final int value;
+        private int index = -1;
+
+        Slotted(int value) {
+            this.value = value;
+        }
+
+        public int heapIndex() {
+            return index;
+        }
+
+        public void heapIndex(int index) {
+            this.index = index;
+        }
+
+        public int compareTo(Slotted other) {
+            return Integer.compare(value, other.value);
+        }
+    }
+
+    @Test
+    void indexedRemoveTest() throws InterruptedException {
+        WaitablePriorityQueueSem<Slotted> q = new WaitablePriorityQueueSem<>(1000);
+        List<Slotted> all = new ArrayList<>();
+        java.util.Random random = new java.util.Random(42);
+        for (int i = 0; i < 1000; ++i) {
+            Slotted s = new Slotted(random.nextInt(100));
+            all.add(s);
+            q.enqueue(s);
+        }
+        Slotted stranger = new Slotted(7);
+        assertFalse(q.remove(stranger));
+        for (int i = 0; i < all.size(); i += 3) {
+            assertTrue(q.remove(all.get(i)));
+            assertEquals(-1, all.get(i).heapIndex());
+            assertFalse(q.remove(all.get(i)));
+        }
+        assertEquals(1000 - 334, q.size());
+
+        int last = -1;
+        while (!q.isEmpty()) {
+            Slotted s = q.dequeue();
+            assertTrue(s.value >= last);
+            assertEquals(-1, s.heapIndex());
+            last = s.value;
+        }
+    }
+
+    @Test
+    void pollLowerThanTest() throws InterruptedException {
+        List<WaitableQueue<Integer>> queues = Arrays.asList(
+                new WaitablePriorityQueueSem<>((a, b) -> Integer.compare(b / 10, a / 10), 20),
+                new WaitableLaneQueue<>(3, i -> i / 10, 20));
+        for (WaitableQueue<Integer> q : queues) {
+            assertNull(q.pollLowerThan(25));
+            q.enqueue(11);
+            q.enqueue(21);
+            q.enqueue(3);
+            assertNull(q.pollLowerThan(1));
+            assertEquals(3, q.pollLowerThan(15));
+            assertNull(q.pollLowerThan(15));
+            assertEquals(11, q.pollLowerThan(25));
+            assertEquals(1, q.size());
+            assertTrue(q.offer(5, 10, TimeUnit.MILLISECONDS));
+            assertEquals(21, q.dequeue());
+            assertEquals(5, q.dequeue());
+        }
+    }
+
+    @Test
+    void updateTest() throws InterruptedException {
+        List<WaitableQueue<AtomicLong>> queues = Arrays.asList(
+                new WaitablePriorityQueueSem<AtomicLong>((a, b) -> Long.compare(b.get() / 10, a.get() / 10), 20),
+                new WaitableLaneQueue<AtomicLong>(3, l -> (int) (l.get() / 10), 20));
+        for (WaitableQueue<AtomicLong> q : queues) {
+            AtomicLong low = new AtomicLong(1);
+            AtomicLong mid = new AtomicLong(11);
+            AtomicLong stranger = new AtomicLong(2);
+            q.enqueue(low);
+            q.enqueue(mid);
+            assertFalse(q.update(stranger, l -> l.set(25)));
+            assertEquals(2, stranger.get());
+            assertTrue(q.update(low, l -> l.set(25)));
+            assertEquals(2, q.size());
+            assertSame(low, q.dequeue());
+            assertSame(mid, q.dequeue());
+            assertFalse(q.update(low, l -> l.set(5)));
+        }
+    }
+}